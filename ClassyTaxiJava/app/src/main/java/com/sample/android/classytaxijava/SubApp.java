@@ -45,7 +45,7 @@ public class SubApp extends Application {
         if (Constants.USE_FAKE_SERVER) {
             return FakeServerFunctions.getInstance();
         } else {
-            return ServerFunctionImpl.getInstance();
+            return ServerFunctionImpl.getInstance(this);
         }
     }
 
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.classytaxijava.billing;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.android.billingclient.api.AcknowledgePurchaseParams;
+import com.android.billingclient.api.AcknowledgePurchaseResponseListener;
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingResult;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * Acknowledges purchase tokens with a bounded number of requests in flight.
+ * <p>
+ * A token is only acknowledged once: tokens that are already queued, in flight, waiting for a
+ * retry or successfully acknowledged are ignored, so refreshing purchases before Play reports
+ * them as acknowledged doesn't send the same acknowledgement again. Requests that fail with a
+ * transient error are retried with exponential backoff.
+ * <p>
+ * Tokens enqueued while earlier ones are still being acknowledged join the same batch. When the
+ * last token of a batch has finished, the {@link BatchListener} is called once with the results of
+ * the whole batch, so callers can publish a single state update.
+ * <p>
+ * Only the most recently acknowledged tokens are remembered. Older tokens are long since reported
+ * as acknowledged by Play, so forgetting them keeps the set bounded in a long-running process.
+ */
+class AcknowledgementQueue {
+    private static final String TAG = "AcknowledgementQueue";
+    private static final int MAX_IN_FLIGHT = 4;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long RETRY_START_MILLISECONDS = 1L * 1000L;
+    private static final long RETRY_MAX_TIME_MILLISECONDS = 1000L * 60L; // 1 min
+    private static final int MAX_ACKNOWLEDGED_TOKENS = 256;
+    private static final Handler handler = new Handler(Looper.getMainLooper());
+
+    interface BatchListener {
+        /**
+         * Called once when every token in the batch has either been acknowledged or has failed.
+         *
+         * @param acknowledgedTokens tokens that Play acknowledged
+         * @param failedTokens       tokens that could not be acknowledged
+         */
+        void onBatchAcknowledged(@NonNull List<String> acknowledgedTokens,
+                @NonNull List<String> failedTokens);
+    }
+
+    private final BillingClient billingClient;
+    private final BatchListener batchListener;
+    // tokens waiting for a free in-flight slot
+    private final Queue<String> queuedTokens = new ArrayDeque<>();
+    // attempts made so far for every unfinished token of the current batch
+    private final Map<String, Integer> attempts = new HashMap<>();
+    // most recently acknowledged tokens, in access order
+    private final Set<String> acknowledgedTokens = Collections.newSetFromMap(
+            new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > MAX_ACKNOWLEDGED_TOKENS;
+                }
+            });
+    private List<String> batchAcknowledgedTokens = new ArrayList<>();
+    private List<String> batchFailedTokens = new ArrayList<>();
+    private int inFlightCount = 0;
+
+    AcknowledgementQueue(@NonNull BillingClient billingClient,
+            @NonNull BatchListener batchListener) {
+        this.billingClient = billingClient;
+        this.batchListener = batchListener;
+    }
+
+    /**
+     * Adds a purchase token to the queue.
+     *
+     * @param purchaseToken the token to acknowledge
+     * @return false if the token is already being acknowledged or has been acknowledged
+     */
+    boolean enqueue(@NonNull String purchaseToken) {
+        synchronized (this) {
+            if (acknowledgedTokens.contains(purchaseToken)
+                    || attempts.containsKey(purchaseToken)) {
+                return false;
+            }
+            attempts.put(purchaseToken, 0);
+            queuedTokens.add(purchaseToken);
+        }
+        sendQueuedTokens();
+        return true;
+    }
+
+    /**
+     * Returns whether Play has acknowledged the token through this queue, even if purchases
+     * queried since then don't report it as acknowledged yet.
+     *
+     * @param purchaseToken the token to check
+     * @return true if the token was recently acknowledged
+     */
+    synchronized boolean isAcknowledged(@NonNull String purchaseToken) {
+        return acknowledgedTokens.contains(purchaseToken);
+    }
+
+    /**
+     * Sends as many queued tokens as there are free in-flight slots. The requests are made
+     * outside the lock, since the billing client may call back synchronously.
+     */
+    private void sendQueuedTokens() {
+        List<String> tokensToSend = new ArrayList<>();
+        synchronized (this) {
+            while (inFlightCount < MAX_IN_FLIGHT && !queuedTokens.isEmpty()) {
+                tokensToSend.add(queuedTokens.remove());
+                inFlightCount++;
+            }
+        }
+        for (final String purchaseToken : tokensToSend) {
+            AcknowledgePurchaseParams params = AcknowledgePurchaseParams.newBuilder()
+                    .setPurchaseToken(purchaseToken)
+                    .build();
+            billingClient.acknowledgePurchase(params, new AcknowledgePurchaseResponseListener() {
+                @Override
+                public void onAcknowledgePurchaseResponse(@NonNull BillingResult billingResult) {
+                    AcknowledgementQueue.this.onAcknowledgePurchaseResponse(purchaseToken,
+                            billingResult);
+                }
+            });
+        }
+    }
+
+    private void onAcknowledgePurchaseResponse(@NonNull final String purchaseToken,
+            @NonNull BillingResult billingResult) {
+        int responseCode = billingResult.getResponseCode();
+        List<String> finishedAcknowledgedTokens = null;
+        List<String> finishedFailedTokens = null;
+        synchronized (this) {
+            inFlightCount--;
+            int attempt = attempts.get(purchaseToken) + 1;
+            if (responseCode == BillingClient.BillingResponseCode.OK) {
+                attempts.remove(purchaseToken);
+                acknowledgedTokens.add(purchaseToken);
+                batchAcknowledgedTokens.add(purchaseToken);
+            } else if (isRetriable(responseCode) && attempt < MAX_ATTEMPTS) {
+                attempts.put(purchaseToken, attempt);
+                long delay = Math.min(RETRY_START_MILLISECONDS << (attempt - 1),
+                        RETRY_MAX_TIME_MILLISECONDS);
+                Log.w(TAG, "Acknowledgement failed with " + responseCode + ", retrying in "
+                        + delay + "ms");
+                handler.postDelayed(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (AcknowledgementQueue.this) {
+                            queuedTokens.add(purchaseToken);
+                        }
+                        sendQueuedTokens();
+                    }
+                }, delay);
+            } else {
+                Log.e(TAG, "Acknowledgement failed: " + responseCode + " "
+                        + billingResult.getDebugMessage());
+                attempts.remove(purchaseToken);
+                batchFailedTokens.add(purchaseToken);
+            }
+            if (attempts.isEmpty()) {
+                finishedAcknowledgedTokens = batchAcknowledgedTokens;
+                finishedFailedTokens = batchFailedTokens;
+                batchAcknowledgedTokens = new ArrayList<>();
+                batchFailedTokens = new ArrayList<>();
+            }
+        }
+        sendQueuedTokens();
+        if (null != finishedAcknowledgedTokens) {
+            Log.d(TAG, "Acknowledgement batch finished: acknowledged="
+                    + finishedAcknowledgedTokens.size() + " failed="
+                    + finishedFailedTokens.size());
+            batchListener.onBatchAcknowledged(finishedAcknowledgedTokens, finishedFailedTokens);
+        }
+    }
+
+    private static boolean isRetriable(int responseCode) {
+        switch (responseCode) {
+            case BillingClient.BillingResponseCode.SERVICE_TIMEOUT:
+            case BillingClient.BillingResponseCode.SERVICE_DISCONNECTED:
+            case BillingClient.BillingResponseCode.SERVICE_UNAVAILABLE:
+            case BillingClient.BillingResponseCode.ERROR:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
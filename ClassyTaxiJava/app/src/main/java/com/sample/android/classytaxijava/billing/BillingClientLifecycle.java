@@ -26,8 +26,6 @@ import androidx.lifecycle.LifecycleObserver;
 import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.OnLifecycleEvent;
 
-import com.android.billingclient.api.AcknowledgePurchaseParams;
-import com.android.billingclient.api.AcknowledgePurchaseResponseListener;
 import com.android.billingclient.api.BillingClient;
 import com.android.billingclient.api.BillingClientStateListener;
 import com.android.billingclient.api.BillingFlowParams;
@@ -36,8 +34,7 @@ import com.android.billingclient.api.Purchase;
 import com.android.billingclient.api.PurchasesResponseListener;
 import com.android.billingclient.api.PurchasesUpdatedListener;
 import com.android.billingclient.api.SkuDetails;
-import com.android.billingclient.api.SkuDetailsParams;
-import com.android.billingclient.api.SkuDetailsResponseListener;
+import com.sample.android.classytaxijava.BuildConfig;
 import com.sample.android.classytaxijava.Constants;
 import com.sample.android.classytaxijava.ui.SingleLiveEvent;
 
@@ -48,9 +45,10 @@ import java.util.List;
 import java.util.Map;
 
 public class BillingClientLifecycle implements LifecycleObserver, PurchasesUpdatedListener,
-        BillingClientStateListener, SkuDetailsResponseListener, PurchasesResponseListener {
+        BillingClientStateListener, SkuDetailsQueryPlanner.Listener, PurchasesResponseListener {
 
     private static final String TAG = "BillingLifecycle";
+    private static final long METRICS_DUMP_INTERVAL = 1000L * 60L; // 1 minute
 
     private static final List<String> LIST_OF_SKUS = Collections.unmodifiableList(
             new ArrayList<String>() {{
@@ -78,6 +76,16 @@ public class BillingClientLifecycle implements LifecycleObserver, PurchasesUpdat
 
     private Application app;
     private BillingClient billingClient;
+    private final BillingMetrics billingMetrics = new BillingMetrics();
+    private final PurchaseListFingerprint purchaseListFingerprint = new PurchaseListFingerprint();
+    private AcknowledgementQueue acknowledgementQueue;
+    private SkuDetailsQueryPlanner skuDetailsQueryPlanner;
+
+    /**
+     * Details of every SKU answered so far. Chunks of a SkuDetails query are merged in as they
+     * arrive, so a chunk that fails keeps the details from earlier queries.
+     */
+    private final Map<String, SkuDetails> knownSkuDetails = new HashMap<>();
 
     private BillingClientLifecycle(Application app) {
         this.app = app;
@@ -100,10 +108,28 @@ public class BillingClientLifecycle implements LifecycleObserver, PurchasesUpdat
         // Create a new BillingClient in onCreate().
         // Since the BillingClient can only be used once, we need to create a new instance
         // after ending the previous connection to the Google Play Store in onDestroy().
-        billingClient = BillingClient.newBuilder(app)
+        // Every call is timed, so the latency of the Play Billing service can be observed.
+        billingClient = new InstrumentedBillingClient(BillingClient.newBuilder(app)
                 .setListener(this)
                 .enablePendingPurchases() // Not used for subscriptions.
-                .build();
+                .build(), billingMetrics);
+        if (BuildConfig.DEBUG) {
+            billingMetrics.startPeriodicDump(METRICS_DUMP_INTERVAL);
+        }
+        acknowledgementQueue = new AcknowledgementQueue(billingClient,
+                new AcknowledgementQueue.BatchListener() {
+                    @Override
+                    public void onBatchAcknowledged(@NonNull List<String> acknowledgedTokens,
+                            @NonNull List<String> failedTokens) {
+                        Log.d(TAG, "onBatchAcknowledged: acknowledged=" +
+                                acknowledgedTokens.size() + " failed=" + failedTokens.size());
+                        if (!acknowledgedTokens.isEmpty()) {
+                            // Publish the acknowledged state of the whole batch at once.
+                            queryPurchases();
+                        }
+                    }
+                });
+        skuDetailsQueryPlanner = new SkuDetailsQueryPlanner(billingClient);
         if (!billingClient.isReady()) {
             Log.d(TAG, "BillingClient: Start connection...");
             billingClient.startConnection(this);
@@ -113,6 +139,7 @@ public class BillingClientLifecycle implements LifecycleObserver, PurchasesUpdat
     @OnLifecycleEvent(Lifecycle.Event.ON_DESTROY)
     public void destroy() {
         Log.d(TAG, "ON_DESTROY");
+        billingMetrics.stopPeriodicDump();
         if (billingClient.isReady()) {
             Log.d(TAG, "BillingClient can only be used once -- closing connection");
             // BillingClient can only be used once.
@@ -121,6 +148,20 @@ public class BillingClientLifecycle implements LifecycleObserver, PurchasesUpdat
         }
     }
 
+    /**
+     * Latency histograms and response code counts of every billing client call.
+     */
+    public BillingMetrics getBillingMetrics() {
+        return billingMetrics;
+    }
+
+    /**
+     * Counts of purchase lists that were published and dropped as unchanged.
+     */
+    public PurchaseListFingerprint getPurchaseListFingerprint() {
+        return purchaseListFingerprint;
+    }
+
     @Override
     public void onBillingSetupFinished(BillingResult billingResult) {
         int responseCode = billingResult.getResponseCode();
@@ -140,10 +181,11 @@ public class BillingClientLifecycle implements LifecycleObserver, PurchasesUpdat
     }
 
     /**
-     * Receives the result from {@link #querySkuDetails()}}.
+     * Receives the result of each chunk of {@link #querySkuDetails()}}.
      * <p>
-     * Store the SkuDetails and post them in the {@link #skusWithSkuDetails}. This allows other
-     * parts of the app to use the {@link SkuDetails} to show SKU information and make purchases.
+     * Merge the SkuDetails into the ones already known and post them in the
+     * {@link #skusWithSkuDetails}. This allows other parts of the app to use the
+     * {@link SkuDetails} to show SKU information and make purchases.
      */
     @Override
     public void onSkuDetailsResponse(BillingResult billingResult, List<SkuDetails> skuDetailsList) {
@@ -157,30 +199,20 @@ public class BillingClientLifecycle implements LifecycleObserver, PurchasesUpdat
         switch (responseCode) {
             case BillingClient.BillingResponseCode.OK:
                 Log.i(TAG, "onSkuDetailsResponse: " + responseCode + " " + debugMessage);
-                final int expectedSkuDetailsCount = LIST_OF_SKUS.size();
                 if (skuDetailsList == null) {
-                    skusWithSkuDetails.postValue(Collections.<String, SkuDetails>emptyMap());
                     Log.e(TAG, "onSkuDetailsResponse: " +
-                            "Expected " + expectedSkuDetailsCount + ", " +
                             "Found null SkuDetails. " +
                             "Check to see if the SKUs you requested are correctly published " +
                             "in the Google Play Console.");
                 } else {
-                    Map<String, SkuDetails> newSkusDetailList = new HashMap<String, SkuDetails>();
-                    for (SkuDetails skuDetails : skuDetailsList) {
-                        newSkusDetailList.put(skuDetails.getSku(), skuDetails);
+                    Map<String, SkuDetails> newSkusDetailList;
+                    synchronized (knownSkuDetails) {
+                        for (SkuDetails skuDetails : skuDetailsList) {
+                            knownSkuDetails.put(skuDetails.getSku(), skuDetails);
+                        }
+                        newSkusDetailList = new HashMap<String, SkuDetails>(knownSkuDetails);
                     }
                     skusWithSkuDetails.postValue(newSkusDetailList);
-                    int skuDetailsCount = newSkusDetailList.size();
-                    if (skuDetailsCount == expectedSkuDetailsCount) {
-                        Log.i(TAG, "onSkuDetailsResponse: Found " + skuDetailsCount + " SkuDetails");
-                    } else {
-                        Log.e(TAG, "onSkuDetailsResponse: " +
-                                "Expected " + expectedSkuDetailsCount + ", " +
-                                "Found " + skuDetailsCount + " SkuDetails. " +
-                                "Check to see if the SKUs you requested are correctly published " +
-                                "in the Google Play Console.");
-                    }
                 }
                 break;
             case BillingClient.BillingResponseCode.SERVICE_DISCONNECTED:
@@ -203,6 +235,29 @@ public class BillingClientLifecycle implements LifecycleObserver, PurchasesUpdat
         }
     }
 
+    /**
+     * Called once every chunk of {@link #querySkuDetails()} has been answered or has failed.
+     */
+    @Override
+    public void onSkuDetailsQueryFinished(@NonNull String skuType,
+            @NonNull List<String> failedSkus) {
+        final int expectedSkuDetailsCount = LIST_OF_SKUS.size();
+        int skuDetailsCount;
+        synchronized (knownSkuDetails) {
+            skuDetailsCount = knownSkuDetails.size();
+        }
+        if (skuDetailsCount == expectedSkuDetailsCount) {
+            Log.i(TAG, "onSkuDetailsQueryFinished: Found " + skuDetailsCount + " SkuDetails");
+        } else {
+            Log.e(TAG, "onSkuDetailsQueryFinished: " +
+                    "Expected " + expectedSkuDetailsCount + ", " +
+                    "Found " + skuDetailsCount + " SkuDetails, " +
+                    failedSkus.size() + " SKUs failed. " +
+                    "Check to see if the SKUs you requested are correctly published " +
+                    "in the Google Play Console.");
+        }
+    }
+
     /**
      * Query Google Play Billing for existing purchases.
      * <p>
@@ -276,7 +331,8 @@ public class BillingClientLifecycle implements LifecycleObserver, PurchasesUpdat
             Log.d(TAG, "processPurchases: with no purchases");
         }
         if (isUnchangedPurchaseList(purchasesList)) {
-            Log.d(TAG, "processPurchases: Purchase list has not changed");
+            Log.d(TAG, "processPurchases: Purchase list has not changed " +
+                    purchaseListFingerprint);
             return;
         }
         purchaseUpdateEvent.postValue(purchasesList);
@@ -312,24 +368,23 @@ public class BillingClientLifecycle implements LifecycleObserver, PurchasesUpdat
 
     /**
      * Check whether the purchases have changed before posting changes.
+     * <p>
+     * An unchanged list would only register the same purchases with the server again and
+     * re-merge the same subscriptions, so it is dropped here. Any change to a purchase token,
+     * purchase state, acknowledged flag or SKU is published.
      */
     private boolean isUnchangedPurchaseList(List<Purchase> purchasesList) {
-        // TODO: Optimize to avoid updates with identical data.
-        return false;
+        return purchaseListFingerprint.isUnchanged(purchasesList);
     }
 
     /**
      * In order to make purchases, you need the {@link SkuDetails} for the item or subscription.
-     * This is an asynchronous call that will receive a result in {@link #onSkuDetailsResponse}.
+     * This is an asynchronous call that will receive a result in {@link #onSkuDetailsResponse}
+     * for every chunk of SKUs, and in {@link #onSkuDetailsQueryFinished} when all are done.
      */
     public void querySkuDetails() {
         Log.d(TAG, "querySkuDetails");
-        SkuDetailsParams params = SkuDetailsParams.newBuilder()
-                .setType(BillingClient.SkuType.SUBS)
-                .setSkusList(LIST_OF_SKUS)
-                .build();
-        Log.i(TAG, "querySkuDetailsAsync");
-        billingClient.querySkuDetailsAsync(params, this);
+        skuDetailsQueryPlanner.query(BillingClient.SkuType.SUBS, LIST_OF_SKUS, this);
     }
 
     /**
@@ -368,19 +423,14 @@ public class BillingClientLifecycle implements LifecycleObserver, PurchasesUpdat
      * user has successfully received access to the content.
      * This eliminates a category of issues where users complain to developers
      * that they paid for something that the app is not giving to them.
+     * <p>
+     * Tokens go through the {@link AcknowledgementQueue}, which ignores tokens that are already
+     * being acknowledged, limits the number of requests in flight and retries transient errors.
      */
     public void acknowledgePurchase(String purchaseToken) {
         Log.d(TAG, "acknowledgePurchase");
-        AcknowledgePurchaseParams params = AcknowledgePurchaseParams.newBuilder()
-                .setPurchaseToken(purchaseToken)
-                .build();
-        billingClient.acknowledgePurchase(params, new AcknowledgePurchaseResponseListener() {
-            @Override
-            public void onAcknowledgePurchaseResponse(BillingResult billingResult) {
-                int responseCode = billingResult.getResponseCode();
-                String debugMessage = billingResult.getDebugMessage();
-                Log.d(TAG, "acknowledgePurchase: " + responseCode + " " + debugMessage);
-            }
-        });
+        if (!acknowledgementQueue.enqueue(purchaseToken)) {
+            Log.d(TAG, "acknowledgePurchase: already acknowledged or in progress");
+        }
     }
 }
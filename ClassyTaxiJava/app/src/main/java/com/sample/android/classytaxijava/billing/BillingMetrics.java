@@ -0,0 +1,172 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.classytaxijava.billing;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency histograms and response code counts for every BillingClient operation, recorded by
+ * the {@link InstrumentedBillingClient}.
+ * <p>
+ * The latency of an asynchronous call runs from the call until its listener is called, so it
+ * includes the time spent waiting for the Play Billing service. A snapshot of every operation can
+ * be taken at any time, and the snapshot can also be written to the log periodically.
+ */
+public class BillingMetrics {
+    private static final String TAG = "BillingMetrics";
+    private static final Handler handler = new Handler(Looper.getMainLooper());
+
+    public enum Operation {
+        START_CONNECTION,
+        QUERY_SKU_DETAILS,
+        QUERY_PURCHASES,
+        QUERY_PURCHASE_HISTORY,
+        CONSUME,
+        ACKNOWLEDGE,
+        LAUNCH_BILLING_FLOW,
+    }
+
+    /**
+     * The metrics of one operation at the time of the snapshot. Latencies are in microseconds.
+     */
+    public static final class OperationSnapshot {
+        public final Operation operation;
+        public final long count;
+        public final long p50Micros;
+        public final long p90Micros;
+        public final long p99Micros;
+        public final long p999Micros;
+        public final long maxMicros;
+        // number of calls that finished with each response code
+        public final Map<Integer, Long> responseCodeCounts;
+
+        OperationSnapshot(Operation operation, LatencyHistogram histogram,
+                Map<Integer, Long> responseCodeCounts) {
+            this.operation = operation;
+            this.count = histogram.getTotalCount();
+            this.p50Micros = histogram.getValueAtPercentile(50.0);
+            this.p90Micros = histogram.getValueAtPercentile(90.0);
+            this.p99Micros = histogram.getValueAtPercentile(99.0);
+            this.p999Micros = histogram.getValueAtPercentile(99.9);
+            this.maxMicros = histogram.getMaxValue();
+            this.responseCodeCounts = Collections.unmodifiableMap(
+                    new TreeMap<Integer, Long>(responseCodeCounts));
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return operation + ": count=" + count + " p50=" + p50Micros + "us p90=" + p90Micros
+                    + "us p99=" + p99Micros + "us p99.9=" + p999Micros + "us max=" + maxMicros
+                    + "us responseCodes=" + responseCodeCounts;
+        }
+    }
+
+    private static final class OperationMetrics {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final Map<Integer, Long> responseCodeCounts = new TreeMap<>();
+    }
+
+    private final Map<Operation, OperationMetrics> operationMetrics =
+            new EnumMap<>(Operation.class);
+    private final Runnable periodicDump = new Runnable() {
+        @Override
+        public void run() {
+            dump();
+            handler.postDelayed(this, dumpIntervalMillis);
+        }
+    };
+    private long dumpIntervalMillis;
+
+    public BillingMetrics() {
+        for (Operation operation : Operation.values()) {
+            operationMetrics.put(operation, new OperationMetrics());
+        }
+    }
+
+    /**
+     * Records one finished call.
+     *
+     * @param operation    the operation that was called
+     * @param elapsedNanos time from the call until its result, in nanoseconds
+     * @param responseCode the response code of the result
+     */
+    void record(@NonNull Operation operation, long elapsedNanos, int responseCode) {
+        OperationMetrics metrics = operationMetrics.get(operation);
+        synchronized (metrics) {
+            metrics.histogram.record(TimeUnit.NANOSECONDS.toMicros(elapsedNanos));
+            Long count = metrics.responseCodeCounts.get(responseCode);
+            metrics.responseCodeCounts.put(responseCode, null == count ? 1L : count + 1);
+        }
+    }
+
+    /**
+     * @return the metrics of every operation, in the order of {@link Operation}
+     */
+    @NonNull
+    public List<OperationSnapshot> snapshot() {
+        List<OperationSnapshot> snapshots = new ArrayList<>();
+        for (Map.Entry<Operation, OperationMetrics> entry : operationMetrics.entrySet()) {
+            OperationMetrics metrics = entry.getValue();
+            synchronized (metrics) {
+                snapshots.add(new OperationSnapshot(entry.getKey(), metrics.histogram,
+                        metrics.responseCodeCounts));
+            }
+        }
+        return snapshots;
+    }
+
+    /**
+     * Writes a snapshot of every operation that has been called to the log.
+     */
+    public void dump() {
+        for (OperationSnapshot snapshot : snapshot()) {
+            if (snapshot.count > 0) {
+                Log.i(TAG, snapshot.toString());
+            }
+        }
+    }
+
+    /**
+     * Starts writing the snapshot to the log at a fixed interval, replacing any earlier interval.
+     * Must be called on the main thread.
+     */
+    public void startPeriodicDump(long intervalMillis) {
+        handler.removeCallbacks(periodicDump);
+        dumpIntervalMillis = intervalMillis;
+        handler.postDelayed(periodicDump, intervalMillis);
+    }
+
+    /**
+     * Stops the periodic dump. Must be called on the main thread.
+     */
+    public void stopPeriodicDump() {
+        handler.removeCallbacks(periodicDump);
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.classytaxijava.billing;
+
+import android.app.Activity;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import com.android.billingclient.api.AcknowledgePurchaseParams;
+import com.android.billingclient.api.AcknowledgePurchaseResponseListener;
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingClientStateListener;
+import com.android.billingclient.api.BillingFlowParams;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.ConsumeParams;
+import com.android.billingclient.api.ConsumeResponseListener;
+import com.android.billingclient.api.PriceChangeConfirmationListener;
+import com.android.billingclient.api.PriceChangeFlowParams;
+import com.android.billingclient.api.Purchase;
+import com.android.billingclient.api.PurchaseHistoryRecord;
+import com.android.billingclient.api.PurchaseHistoryResponseListener;
+import com.android.billingclient.api.PurchasesResponseListener;
+import com.android.billingclient.api.SkuDetails;
+import com.android.billingclient.api.SkuDetailsParams;
+import com.android.billingclient.api.SkuDetailsResponseListener;
+
+import java.util.List;
+
+/**
+ * A BillingClient that passes every call through to another client and records how long each
+ * call took and how it ended in a {@link BillingMetrics}.
+ * <p>
+ * Asynchronous calls are timed until their listener is called, so the recorded latency is the
+ * latency the caller sees. The listeners are called on the same thread as they would be by the
+ * wrapped client.
+ */
+class InstrumentedBillingClient extends BillingClient {
+    private final BillingClient billingClient;
+    private final BillingMetrics billingMetrics;
+
+    InstrumentedBillingClient(@NonNull BillingClient billingClient,
+            @NonNull BillingMetrics billingMetrics) {
+        this.billingClient = billingClient;
+        this.billingMetrics = billingMetrics;
+    }
+
+    private void record(BillingMetrics.Operation operation, long startNanos,
+            BillingResult billingResult) {
+        billingMetrics.record(operation, SystemClock.elapsedRealtimeNanos() - startNanos,
+                billingResult.getResponseCode());
+    }
+
+    @Override
+    public boolean isReady() {
+        return billingClient.isReady();
+    }
+
+    @Override
+    public int getConnectionState() {
+        return billingClient.getConnectionState();
+    }
+
+    @Override
+    public void startConnection(@NonNull final BillingClientStateListener listener) {
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
+        billingClient.startConnection(new BillingClientStateListener() {
+            @Override
+            public void onBillingSetupFinished(@NonNull BillingResult billingResult) {
+                record(BillingMetrics.Operation.START_CONNECTION, startNanos, billingResult);
+                listener.onBillingSetupFinished(billingResult);
+            }
+
+            @Override
+            public void onBillingServiceDisconnected() {
+                listener.onBillingServiceDisconnected();
+            }
+        });
+    }
+
+    @Override
+    public void endConnection() {
+        billingClient.endConnection();
+    }
+
+    @NonNull
+    @Override
+    public BillingResult isFeatureSupported(@NonNull String feature) {
+        return billingClient.isFeatureSupported(feature);
+    }
+
+    @NonNull
+    @Override
+    public BillingResult launchBillingFlow(@NonNull Activity activity,
+            @NonNull BillingFlowParams params) {
+        long startNanos = SystemClock.elapsedRealtimeNanos();
+        BillingResult billingResult = billingClient.launchBillingFlow(activity, params);
+        record(BillingMetrics.Operation.LAUNCH_BILLING_FLOW, startNanos, billingResult);
+        return billingResult;
+    }
+
+    @Override
+    public void launchPriceChangeConfirmationFlow(@NonNull Activity activity,
+            @NonNull PriceChangeFlowParams params,
+            @NonNull PriceChangeConfirmationListener listener) {
+        billingClient.launchPriceChangeConfirmationFlow(activity, params, listener);
+    }
+
+    @Override
+    public void querySkuDetailsAsync(@NonNull SkuDetailsParams params,
+            @NonNull final SkuDetailsResponseListener listener) {
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
+        billingClient.querySkuDetailsAsync(params, new SkuDetailsResponseListener() {
+            @Override
+            public void onSkuDetailsResponse(@NonNull BillingResult billingResult,
+                    List<SkuDetails> skuDetailsList) {
+                record(BillingMetrics.Operation.QUERY_SKU_DETAILS, startNanos, billingResult);
+                listener.onSkuDetailsResponse(billingResult, skuDetailsList);
+            }
+        });
+    }
+
+    @Override
+    public void queryPurchasesAsync(@NonNull String skuType,
+            @NonNull final PurchasesResponseListener listener) {
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
+        billingClient.queryPurchasesAsync(skuType, new PurchasesResponseListener() {
+            @Override
+            public void onQueryPurchasesResponse(@NonNull BillingResult billingResult,
+                    @NonNull List<Purchase> purchases) {
+                record(BillingMetrics.Operation.QUERY_PURCHASES, startNanos, billingResult);
+                listener.onQueryPurchasesResponse(billingResult, purchases);
+            }
+        });
+    }
+
+    @NonNull
+    @Override
+    @SuppressWarnings("deprecation")
+    public Purchase.PurchasesResult queryPurchases(@NonNull String skuType) {
+        long startNanos = SystemClock.elapsedRealtimeNanos();
+        Purchase.PurchasesResult purchasesResult = billingClient.queryPurchases(skuType);
+        record(BillingMetrics.Operation.QUERY_PURCHASES, startNanos,
+                purchasesResult.getBillingResult());
+        return purchasesResult;
+    }
+
+    @Override
+    public void queryPurchaseHistoryAsync(@NonNull String skuType,
+            @NonNull final PurchaseHistoryResponseListener listener) {
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
+        billingClient.queryPurchaseHistoryAsync(skuType, new PurchaseHistoryResponseListener() {
+            @Override
+            public void onPurchaseHistoryResponse(@NonNull BillingResult billingResult,
+                    List<PurchaseHistoryRecord> records) {
+                record(BillingMetrics.Operation.QUERY_PURCHASE_HISTORY, startNanos,
+                        billingResult);
+                listener.onPurchaseHistoryResponse(billingResult, records);
+            }
+        });
+    }
+
+    @Override
+    public void consumeAsync(@NonNull ConsumeParams params,
+            @NonNull final ConsumeResponseListener listener) {
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
+        billingClient.consumeAsync(params, new ConsumeResponseListener() {
+            @Override
+            public void onConsumeResponse(@NonNull BillingResult billingResult,
+                    @NonNull String purchaseToken) {
+                record(BillingMetrics.Operation.CONSUME, startNanos, billingResult);
+                listener.onConsumeResponse(billingResult, purchaseToken);
+            }
+        });
+    }
+
+    @Override
+    public void acknowledgePurchase(@NonNull AcknowledgePurchaseParams params,
+            @NonNull final AcknowledgePurchaseResponseListener listener) {
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
+        billingClient.acknowledgePurchase(params, new AcknowledgePurchaseResponseListener() {
+            @Override
+            public void onAcknowledgePurchaseResponse(@NonNull BillingResult billingResult) {
+                record(BillingMetrics.Operation.ACKNOWLEDGE, startNanos, billingResult);
+                listener.onAcknowledgePurchaseResponse(billingResult);
+            }
+        });
+    }
+}
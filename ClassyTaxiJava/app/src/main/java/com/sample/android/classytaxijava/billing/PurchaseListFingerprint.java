@@ -0,0 +1,129 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.classytaxijava.billing;
+
+import androidx.annotation.Nullable;
+
+import com.android.billingclient.api.Purchase;
+
+import java.util.List;
+
+/**
+ * Remembers a fingerprint of the last purchase list that was published, so that purchase query
+ * results that did not change anything can be dropped before they reach any observer.
+ * <p>
+ * The fingerprint covers the purchase token, purchase state, acknowledged flag and SKUs of every
+ * purchase. It does not depend on the order of the purchases, because the Play Billing service
+ * does not promise a stable order between queries. Each purchase is hashed to 64 bits and the
+ * hashes are summed, so comparing a new list costs one pass over it and no allocations.
+ */
+public class PurchaseListFingerprint {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    // Sizes are never negative, so this marks a null list and a list that has not been seen yet.
+    private static final int NULL_LIST_SIZE = -1;
+    private static final int UNKNOWN_LIST_SIZE = -2;
+
+    private int lastSize = UNKNOWN_LIST_SIZE;
+    private long lastHash;
+    private long changedCount;
+    private long unchangedCount;
+    private long unchangedPurchaseCount;
+
+    /**
+     * Compare the purchase list with the last one and remember it.
+     *
+     * @return true if the list has the same purchases as the last one, in any order
+     */
+    public synchronized boolean isUnchanged(@Nullable List<Purchase> purchasesList) {
+        int size = purchasesList == null ? NULL_LIST_SIZE : purchasesList.size();
+        long hash = 0L;
+        if (purchasesList != null) {
+            for (Purchase purchase : purchasesList) {
+                hash += hash(purchase);
+            }
+        }
+        if (size == lastSize && hash == lastHash) {
+            unchangedCount++;
+            if (size > 0) {
+                unchangedPurchaseCount += size;
+            }
+            return true;
+        }
+        lastSize = size;
+        lastHash = hash;
+        changedCount++;
+        return false;
+    }
+
+    /**
+     * Number of purchase lists that were different from the previous one.
+     */
+    public synchronized long getChangedCount() {
+        return changedCount;
+    }
+
+    /**
+     * Number of purchase lists that were dropped because nothing changed.
+     */
+    public synchronized long getUnchangedCount() {
+        return unchangedCount;
+    }
+
+    /**
+     * Number of purchases in the dropped lists. Each of them would otherwise have been sent to
+     * the server again.
+     */
+    public synchronized long getUnchangedPurchaseCount() {
+        return unchangedPurchaseCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PurchaseListFingerprint{" +
+                "changed=" + changedCount +
+                ", unchanged=" + unchangedCount +
+                ", unchangedPurchases=" + unchangedPurchaseCount +
+                '}';
+    }
+
+    private static long hash(Purchase purchase) {
+        long hash = FNV_OFFSET_BASIS;
+        hash = hash(hash, purchase.getPurchaseToken());
+        hash = (hash ^ purchase.getPurchaseState()) * FNV_PRIME;
+        hash = (hash ^ (purchase.isAcknowledged() ? 1 : 0)) * FNV_PRIME;
+        for (String sku : purchase.getSkus()) {
+            hash = hash(hash, sku);
+        }
+        // Spread the bits before the hashes are summed, so that similar purchases
+        // do not cancel out.
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static long hash(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        }
+        // Separate the strings, so that moving characters between them changes the hash.
+        return (hash ^ 0xffff) * FNV_PRIME;
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.classytaxijava.billing;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.SkuDetails;
+import com.android.billingclient.api.SkuDetailsParams;
+import com.android.billingclient.api.SkuDetailsResponseListener;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Queries SkuDetails for large SKU lists in bounded chunks.
+ * <p>
+ * A single query for every SKU is only as fast as Play's slowest answer, and one failure loses
+ * the details of every SKU. Instead, the SKU list is split into chunks of at most
+ * MAX_SKUS_PER_QUERY SKUs, a few chunks are queried at a time, and the details of every chunk
+ * are handed to the listener as soon as they arrive. Chunks that fail with a transient error are
+ * retried with exponential backoff on their own; the rest of the query isn't repeated.
+ */
+class SkuDetailsQueryPlanner {
+    private static final String TAG = "SkuDetailsQueryPlanner";
+    private static final int MAX_SKUS_PER_QUERY = 20;
+    private static final int MAX_PARALLEL_QUERIES = 3;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_START_MILLISECONDS = 1L * 1000L;
+    private static final long RETRY_MAX_TIME_MILLISECONDS = 1000L * 30L; // 30 s
+    private static final Handler handler = new Handler(Looper.getMainLooper());
+
+    interface Listener extends SkuDetailsResponseListener {
+        /**
+         * Called once when every chunk of a query has either been answered or has failed. The
+         * responses themselves are delivered to {@link #onSkuDetailsResponse} chunk by chunk,
+         * including the final response of every chunk that failed.
+         *
+         * @param skuType    sku type, inapp or subscription
+         * @param failedSkus skus whose chunk could not be queried
+         */
+        void onSkuDetailsQueryFinished(@NonNull String skuType, @NonNull List<String> failedSkus);
+    }
+
+    private final BillingClient billingClient;
+
+    SkuDetailsQueryPlanner(@NonNull BillingClient billingClient) {
+        this.billingClient = billingClient;
+    }
+
+    /**
+     * Queries the details of the SKUs in chunks.
+     *
+     * @param skuType  sku type, inapp or subscription
+     * @param skus     skus to query the details for
+     * @param listener receives every chunk's response and the end of the query
+     */
+    void query(@NonNull String skuType, @NonNull List<String> skus,
+            @NonNull Listener listener) {
+        if (skus.isEmpty()) {
+            listener.onSkuDetailsQueryFinished(skuType, Collections.<String>emptyList());
+            return;
+        }
+        new Query(skuType, skus, listener).sendQueuedChunks();
+    }
+
+    private static final class Chunk {
+        final List<String> skus;
+        int attempts = 0;
+
+        Chunk(List<String> skus) {
+            this.skus = skus;
+        }
+    }
+
+    private class Query {
+        private final String skuType;
+        private final Listener listener;
+        // chunks waiting for a free query slot
+        private final Queue<Chunk> queuedChunks = new ArrayDeque<>();
+        private final List<String> failedSkus = new ArrayList<>();
+        private int inFlightCount = 0;
+        private int unfinishedCount;
+
+        Query(String skuType, List<String> skus, Listener listener) {
+            this.skuType = skuType;
+            this.listener = listener;
+            for (int start = 0; start < skus.size(); start += MAX_SKUS_PER_QUERY) {
+                queuedChunks.add(new Chunk(new ArrayList<>(skus.subList(start,
+                        Math.min(start + MAX_SKUS_PER_QUERY, skus.size())))));
+            }
+            unfinishedCount = queuedChunks.size();
+        }
+
+        /**
+         * Sends as many queued chunks as there are free query slots. The queries are made outside
+         * the lock, since the billing client may call back synchronously.
+         */
+        private void sendQueuedChunks() {
+            List<Chunk> chunksToSend = new ArrayList<>();
+            synchronized (this) {
+                while (inFlightCount < MAX_PARALLEL_QUERIES && !queuedChunks.isEmpty()) {
+                    chunksToSend.add(queuedChunks.remove());
+                    inFlightCount++;
+                }
+            }
+            for (final Chunk chunk : chunksToSend) {
+                SkuDetailsParams params = SkuDetailsParams.newBuilder()
+                        .setType(skuType)
+                        .setSkusList(chunk.skus)
+                        .build();
+                billingClient.querySkuDetailsAsync(params, new SkuDetailsResponseListener() {
+                    @Override
+                    public void onSkuDetailsResponse(@NonNull BillingResult billingResult,
+                            List<SkuDetails> skuDetailsList) {
+                        onChunkResponse(chunk, billingResult, skuDetailsList);
+                    }
+                });
+            }
+        }
+
+        private void onChunkResponse(@NonNull final Chunk chunk,
+                @NonNull BillingResult billingResult, List<SkuDetails> skuDetailsList) {
+            int responseCode = billingResult.getResponseCode();
+            boolean finished;
+            boolean queryFinished = false;
+            synchronized (this) {
+                inFlightCount--;
+                chunk.attempts++;
+                finished = responseCode == BillingClient.BillingResponseCode.OK
+                        || !isRetriable(responseCode) || chunk.attempts >= MAX_ATTEMPTS;
+                if (finished) {
+                    if (responseCode != BillingClient.BillingResponseCode.OK) {
+                        failedSkus.addAll(chunk.skus);
+                    }
+                    queryFinished = --unfinishedCount == 0;
+                } else {
+                    long delay = Math.min(RETRY_START_MILLISECONDS << (chunk.attempts - 1),
+                            RETRY_MAX_TIME_MILLISECONDS);
+                    Log.w(TAG, "SkuDetails chunk failed with " + responseCode + ", retrying in "
+                            + delay + "ms");
+                    handler.postDelayed(new Runnable() {
+                        @Override
+                        public void run() {
+                            synchronized (Query.this) {
+                                queuedChunks.add(chunk);
+                            }
+                            sendQueuedChunks();
+                        }
+                    }, delay);
+                }
+            }
+            if (finished) {
+                listener.onSkuDetailsResponse(billingResult, skuDetailsList);
+            }
+            sendQueuedChunks();
+            if (queryFinished) {
+                Log.d(TAG, "SkuDetails query finished: type=" + skuType + " failed="
+                        + failedSkus.size());
+                listener.onSkuDetailsQueryFinished(skuType, failedSkus);
+            }
+        }
+    }
+
+    private static boolean isRetriable(int responseCode) {
+        switch (responseCode) {
+            case BillingClient.BillingResponseCode.SERVICE_TIMEOUT:
+            case BillingClient.BillingResponseCode.SERVICE_DISCONNECTED:
+            case BillingClient.BillingResponseCode.SERVICE_UNAVAILABLE:
+            case BillingClient.BillingResponseCode.ERROR:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
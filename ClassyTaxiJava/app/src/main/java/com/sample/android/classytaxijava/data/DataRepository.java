@@ -16,7 +16,6 @@
 
 package com.sample.android.classytaxijava.data;
 
-import android.text.TextUtils;
 import android.util.Log;
 
 import com.android.billingclient.api.Purchase;
@@ -26,7 +25,12 @@ import com.sample.android.classytaxijava.data.disk.LocalDataSource;
 import com.sample.android.classytaxijava.data.network.WebDataSource;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import androidx.annotation.Nullable;
 import androidx.lifecycle.LiveData;
@@ -150,6 +154,14 @@ public class DataRepository {
         return subscriptions;
     }
 
+    /**
+     * Get the subscriptions for a single SKU. Unlike {@link #getSubscriptions()}, observers are
+     * not notified when only the subscriptions for other SKUs change.
+     */
+    public LiveData<List<SubscriptionStatus>> getSubscriptions(String sku) {
+        return localDataSource.getSubscriptions(sku);
+    }
+
     public MediatorLiveData<ContentResource> getBasicContent() {
         return basicContent;
     }
@@ -236,33 +248,29 @@ public class DataRepository {
         }
         // Find old subscriptions that are in purchases but not in new subscriptions.
         if (purchases != null && oldSubscriptions != null) {
+            // Index the purchases and new SKUs once instead of scanning them for every
+            // old subscription.
+            Set<List<String>> purchaseKeys = new HashSet<>();
+            for (Purchase purchase : purchases) {
+                purchaseKeys.add(Arrays.asList(
+                        purchase.getSkus().get(0), purchase.getPurchaseToken()));
+            }
+            Set<String> newSkus = new HashSet<>();
+            if (newSubscriptions != null) {
+                for (SubscriptionStatus newSubscription : newSubscriptions) {
+                    newSkus.add(newSubscription.getSku());
+                }
+            }
             for (SubscriptionStatus oldSubscription : oldSubscriptions) {
-                if (oldSubscription.isSubAlreadyOwned() && oldSubscription.isLocalPurchase()) {
-                    // This old subscription was previously marked as "already owned" by
-                    // another user. It should be included in the output if the SKU
-                    // and purchase token match their previous value.
-                    for (Purchase purchase : purchases) {
-                        if (purchase.getSkus().get(0).equals(oldSubscription.getSku()) &&
-                                purchase.getPurchaseToken().equals(oldSubscription.getPurchaseToken())) {
-                            // The old subscription that was already owned subscription should
-                            // be added to the new subscriptions.
-                            // Look through the new subscriptions to see if it is there.
-                            boolean foundNewSubscription = false;
-                            if (newSubscriptions != null) {
-                                for (SubscriptionStatus newSubscription : newSubscriptions) {
-                                    if (TextUtils.equals(newSubscription.getSku(),
-                                            oldSubscription.getSku())) {
-                                        foundNewSubscription = true;
-                                    }
-                                }
-                            }
-                            if (!foundNewSubscription) {
-                                // The old subscription should be added to the output.
-                                // It matches a local purchase.
-                                subscriptionStatuses.add(oldSubscription);
-                            }
-                        }
-                    }
+                // This old subscription was previously marked as "already owned" by
+                // another user. It should be included in the output if the SKU
+                // and purchase token match a local purchase, and the new subscriptions
+                // do not already contain the SKU.
+                if (oldSubscription.isSubAlreadyOwned() && oldSubscription.isLocalPurchase()
+                        && purchaseKeys.contains(Arrays.asList(
+                                oldSubscription.getSku(), oldSubscription.getPurchaseToken()))
+                        && !newSkus.contains(oldSubscription.getSku())) {
+                    subscriptionStatuses.add(oldSubscription);
                 }
             }
         }
@@ -278,17 +286,19 @@ public class DataRepository {
             @Nullable List<Purchase> purchases) {
         boolean hasChanged = false;
         if (subscriptions != null) {
-            for (SubscriptionStatus subscription : subscriptions) {
-                boolean isLocalPurchase = false;
-                String purchaseToken = subscription.getPurchaseToken();
-                if (purchases != null) {
-                    for (Purchase purchase : purchases) {
-                        if (TextUtils.equals(subscription.getSku(), purchase.getSkus().get(0))) {
-                            isLocalPurchase = true;
-                            purchaseToken = purchase.getPurchaseToken();
-                        }
-                    }
+            // If several purchases have the same SKU, the last one wins.
+            Map<String, String> purchaseTokensBySku = new HashMap<>();
+            if (purchases != null) {
+                for (Purchase purchase : purchases) {
+                    purchaseTokensBySku.put(purchase.getSkus().get(0),
+                            purchase.getPurchaseToken());
                 }
+            }
+            for (SubscriptionStatus subscription : subscriptions) {
+                boolean isLocalPurchase = purchaseTokensBySku.containsKey(subscription.getSku());
+                String purchaseToken = isLocalPurchase ?
+                        purchaseTokensBySku.get(subscription.getSku()) :
+                        subscription.getPurchaseToken();
                 if (subscription.isLocalPurchase() != isLocalPurchase) {
                     subscription.setLocalPurchase(isLocalPurchase);
                     subscription.setPurchaseToken(purchaseToken);
@@ -18,12 +18,17 @@ package com.sample.android.classytaxijava.data;
 
 import androidx.annotation.Nullable;
 import androidx.room.Entity;
+import androidx.room.Ignore;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
+import java.util.Objects;
+
 /**
  * Local subscription data. This is stored on disk in a database.
  */
-@Entity(tableName = "subscriptions")
+@Entity(tableName = "subscriptions",
+        indices = {@Index(value = {"sku", "purchaseToken"})})
 public class SubscriptionStatus {
 
     // Local fields
@@ -48,6 +53,30 @@ public class SubscriptionStatus {
     private boolean isPaused;
     private Long autoResumeTimeMillis;
 
+    public SubscriptionStatus() {
+    }
+
+    /**
+     * Copy every field, including the primary key.
+     */
+    @Ignore
+    public SubscriptionStatus(SubscriptionStatus other) {
+        primaryKey = other.primaryKey;
+        subscriptionStatusJson = other.subscriptionStatusJson;
+        subAlreadyOwned = other.subAlreadyOwned;
+        isLocalPurchase = other.isLocalPurchase;
+        sku = other.sku;
+        purchaseToken = other.purchaseToken;
+        isEntitlementActive = other.isEntitlementActive;
+        willRenew = other.willRenew;
+        activeUntilMillisec = other.activeUntilMillisec;
+        isFreeTrial = other.isFreeTrial;
+        isGracePeriod = other.isGracePeriod;
+        isAccountHold = other.isAccountHold;
+        isPaused = other.isPaused;
+        autoResumeTimeMillis = other.autoResumeTimeMillis;
+    }
+
     public boolean isWillRenew() {
         return willRenew;
     }
@@ -178,6 +207,28 @@ public class SubscriptionStatus {
         return subscriptionStatus;
     }
 
+    /**
+     * Compare every stored field except the generated primary key.
+     * <p>
+     * Rows read back from the database carry their primary key while rows from the server
+     * do not, so this is used to tell whether a stored row needs to be rewritten.
+     */
+    public boolean contentEquals(SubscriptionStatus other) {
+        return subAlreadyOwned == other.subAlreadyOwned &&
+                isLocalPurchase == other.isLocalPurchase &&
+                isEntitlementActive == other.isEntitlementActive &&
+                willRenew == other.willRenew &&
+                isFreeTrial == other.isFreeTrial &&
+                isGracePeriod == other.isGracePeriod &&
+                isAccountHold == other.isAccountHold &&
+                isPaused == other.isPaused &&
+                Objects.equals(subscriptionStatusJson, other.subscriptionStatusJson) &&
+                Objects.equals(sku, other.sku) &&
+                Objects.equals(purchaseToken, other.purchaseToken) &&
+                Objects.equals(activeUntilMillisec, other.activeUntilMillisec) &&
+                Objects.equals(autoResumeTimeMillis, other.autoResumeTimeMillis);
+    }
+
     @Override
     public String toString() {
         return "SubscriptionStatus{" +
@@ -16,13 +16,18 @@
 
 package com.sample.android.classytaxijava.data.disk;
 
+import androidx.annotation.Nullable;
 import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MediatorLiveData;
+import androidx.lifecycle.Observer;
 
 import com.sample.android.classytaxijava.AppExecutors;
 import com.sample.android.classytaxijava.data.SubscriptionStatus;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Executor;
 
 public class LocalDataSource {
@@ -36,6 +41,12 @@ public class LocalDataSource {
      */
     public LiveData<List<SubscriptionStatus>> subscriptions;
 
+    /**
+     * Per-SKU subscriptions, created on first use and shared by every caller.
+     */
+    private final Map<String, LiveData<List<SubscriptionStatus>>> subscriptionsBySku =
+            new HashMap<>();
+
     private LocalDataSource(Executor executor, AppDatabase appDatabase) {
         this.executor = executor;
         this.appDatabase = appDatabase;
@@ -54,17 +65,91 @@ public class LocalDataSource {
         return INSTANCE;
     }
 
+    /**
+     * Get the subscriptions for a single SKU, in the order they were stored, and get notified
+     * when they change. A SKU can have more than one row, such as a token that is already
+     * owned by another account next to a new one.
+     * <p>
+     * The query is a keyed lookup on the sku index. Room re-runs it whenever the table is
+     * written, so lists that come back with the same contents are dropped here and observers
+     * are only notified when this SKU's subscriptions actually change.
+     */
+    public LiveData<List<SubscriptionStatus>> getSubscriptions(String sku) {
+        synchronized (subscriptionsBySku) {
+            LiveData<List<SubscriptionStatus>> subscriptions = subscriptionsBySku.get(sku);
+            if (subscriptions == null) {
+                subscriptions = distinctSubscriptions(
+                        appDatabase.subscriptionStatusDao().getBySku(sku));
+                subscriptionsBySku.put(sku, subscriptions);
+            }
+            return subscriptions;
+        }
+    }
+
+    private static LiveData<List<SubscriptionStatus>> distinctSubscriptions(
+            LiveData<List<SubscriptionStatus>> source) {
+        final MediatorLiveData<List<SubscriptionStatus>> result = new MediatorLiveData<>();
+        result.addSource(source, new Observer<List<SubscriptionStatus>>() {
+            private boolean hasValue = false;
+
+            @Override
+            public void onChanged(@Nullable List<SubscriptionStatus> subscriptions) {
+                if (hasValue && contentEquals(result.getValue(), subscriptions)) {
+                    return;
+                }
+                hasValue = true;
+                result.setValue(subscriptions);
+            }
+        });
+        return result;
+    }
+
+    private static boolean contentEquals(@Nullable List<SubscriptionStatus> previous,
+                                         @Nullable List<SubscriptionStatus> subscriptions) {
+        if (previous == null || subscriptions == null) {
+            return previous == subscriptions;
+        }
+        if (previous.size() != subscriptions.size()) {
+            return false;
+        }
+        for (int i = 0; i < previous.size(); i++) {
+            if (!previous.get(i).contentEquals(subscriptions.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replace the stored subscriptions with the new list.
+     * <p>
+     * Only the rows that were added, changed or removed are written, and nothing is written
+     * when the new list matches what is already stored, so observers of {@link #subscriptions}
+     * are not notified for a refresh that brought no changes. All writes happen on the single
+     * disk executor, so the stored rows cannot change between reading and writing them.
+     */
     public void updateSubscriptions(final List<SubscriptionStatus> subscriptions) {
         executor.execute(new Runnable() {
             @Override
             public void run() {
+                final SubscriptionStatusDao dao = appDatabase.subscriptionStatusDao();
+                final SubscriptionStatusDiff diff =
+                        SubscriptionStatusDiff.compute(dao.loadAll(), subscriptions);
+                if (diff.isEmpty()) {
+                    return;
+                }
                 appDatabase.runInTransaction(new Runnable() {
                     @Override
                     public void run() {
-                        // Delete existing subscriptions.
-                        appDatabase.subscriptionStatusDao().deleteAll();
-                        // Put new subscriptions data into localDataSource.
-                        appDatabase.subscriptionStatusDao().insertAll(subscriptions);
+                        if (!diff.deletes.isEmpty()) {
+                            dao.delete(diff.deletes);
+                        }
+                        if (!diff.updates.isEmpty()) {
+                            dao.updateAll(diff.updates);
+                        }
+                        if (!diff.inserts.isEmpty()) {
+                            dao.insertAll(diff.inserts);
+                        }
                     }
                 });
             }
@@ -22,18 +22,32 @@ import java.util.List;
 
 import androidx.lifecycle.LiveData;
 import androidx.room.Dao;
+import androidx.room.Delete;
 import androidx.room.Insert;
 import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
+import androidx.room.Update;
 
 @Dao
 interface SubscriptionStatusDao {
     @Query("SELECT * FROM subscriptions")
     LiveData<List<SubscriptionStatus>> getAll();
 
+    @Query("SELECT * FROM subscriptions")
+    List<SubscriptionStatus> loadAll();
+
+    @Query("SELECT * FROM subscriptions WHERE sku = :sku ORDER BY primaryKey")
+    LiveData<List<SubscriptionStatus>> getBySku(String sku);
+
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     void insertAll(List<SubscriptionStatus> comments);
 
+    @Update
+    void updateAll(List<SubscriptionStatus> subscriptions);
+
+    @Delete
+    void delete(List<SubscriptionStatus> subscriptions);
+
     @Query("DELETE FROM subscriptions")
     void deleteAll();
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.classytaxijava.data.disk;
+
+import com.sample.android.classytaxijava.data.SubscriptionStatus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The inserts, updates and deletes that turn the stored subscriptions into a new list.
+ * <p>
+ * Rows are matched on SKU and purchase token. A row that is in both lists is only rewritten
+ * when its contents changed, and it keeps its primary key so Room updates it in place.
+ * <p>
+ * The new rows are shared with the repository's LiveData, so inserts and updates hold copies
+ * that carry the primary keys; the caller's objects are never changed.
+ */
+class SubscriptionStatusDiff {
+    final List<SubscriptionStatus> inserts = new ArrayList<>();
+    final List<SubscriptionStatus> updates = new ArrayList<>();
+    final List<SubscriptionStatus> deletes = new ArrayList<>();
+
+    private SubscriptionStatusDiff() {
+    }
+
+    /**
+     * Compute the changes needed to replace the stored rows with the new rows.
+     * If the new list holds more than one row for the same SKU and purchase token,
+     * the last one wins.
+     */
+    static SubscriptionStatusDiff compute(final List<SubscriptionStatus> stored,
+                                          final List<SubscriptionStatus> subscriptions) {
+        SubscriptionStatusDiff diff = new SubscriptionStatusDiff();
+        Map<List<String>, SubscriptionStatus> storedByKey = new HashMap<>();
+        for (SubscriptionStatus subscription : stored) {
+            SubscriptionStatus duplicate = storedByKey.put(keyOf(subscription), subscription);
+            if (duplicate != null) {
+                // Older versions replaced the whole table, so clean up any duplicate rows.
+                diff.deletes.add(duplicate);
+            }
+        }
+        Map<List<String>, SubscriptionStatus> subscriptionsByKey = new LinkedHashMap<>();
+        for (SubscriptionStatus subscription : subscriptions) {
+            subscriptionsByKey.put(keyOf(subscription), subscription);
+        }
+        for (Map.Entry<List<String>, SubscriptionStatus> entry : subscriptionsByKey.entrySet()) {
+            SubscriptionStatus subscription = entry.getValue();
+            SubscriptionStatus existing = storedByKey.remove(entry.getKey());
+            if (existing == null) {
+                SubscriptionStatus insert = new SubscriptionStatus(subscription);
+                insert.setPrimaryKey(0);
+                diff.inserts.add(insert);
+            } else if (!existing.contentEquals(subscription)) {
+                SubscriptionStatus update = new SubscriptionStatus(subscription);
+                update.setPrimaryKey(existing.getPrimaryKey());
+                diff.updates.add(update);
+            }
+        }
+        diff.deletes.addAll(storedByKey.values());
+        return diff;
+    }
+
+    private static List<String> keyOf(SubscriptionStatus subscription) {
+        return Arrays.asList(subscription.getSku(), subscription.getPurchaseToken());
+    }
+
+    boolean isEmpty() {
+        return inserts.isEmpty() && updates.isEmpty() && deletes.isEmpty();
+    }
+}
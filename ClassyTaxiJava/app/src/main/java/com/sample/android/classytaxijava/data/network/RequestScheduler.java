@@ -0,0 +1,126 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.classytaxijava.data.network;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Run network requests on an executor, concurrently unless they conflict.
+ * <p>
+ * Each request names the keys it touches, such as a SKU or a purchase token. A request only
+ * starts once every earlier request that shares one of its keys has finished, so conflicting
+ * requests run in the order they were submitted. Requests without keys, and requests whose keys
+ * are not in use, start right away.
+ */
+class RequestScheduler {
+    private final Executor executor;
+
+    /**
+     * Requests with keys that are running or waiting, in the order they were submitted.
+     */
+    private final List<Request> requests = new LinkedList<>();
+
+    RequestScheduler(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Run the request after every earlier request that shares one of its keys.
+     */
+    void execute(final Runnable runnable, final String... keys) {
+        if (keys.length == 0) {
+            executor.execute(runnable);
+            return;
+        }
+        List<Request> ready;
+        synchronized (requests) {
+            requests.add(new Request(runnable, keys));
+            ready = takeReadyRequests();
+        }
+        start(ready);
+    }
+
+    private void finish(final Request request) {
+        List<Request> ready;
+        synchronized (requests) {
+            requests.remove(request);
+            ready = takeReadyRequests();
+        }
+        start(ready);
+    }
+
+    /**
+     * Mark and return the waiting requests that no earlier request conflicts with.
+     */
+    private List<Request> takeReadyRequests() {
+        List<Request> ready = new ArrayList<>();
+        Set<String> busyKeys = new HashSet<>();
+        Iterator<Request> iterator = requests.iterator();
+        while (iterator.hasNext()) {
+            Request request = iterator.next();
+            if (!request.started && !containsAny(busyKeys, request.keys)) {
+                request.started = true;
+                ready.add(request);
+            }
+            busyKeys.addAll(request.keys);
+        }
+        return ready;
+    }
+
+    private void start(List<Request> ready) {
+        for (Request request : ready) {
+            executor.execute(request);
+        }
+    }
+
+    private static boolean containsAny(Set<String> busyKeys, List<String> keys) {
+        for (String key : keys) {
+            if (busyKeys.contains(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private final class Request implements Runnable {
+        private final Runnable runnable;
+        private final List<String> keys;
+        // Guarded by the requests list.
+        private boolean started = false;
+
+        Request(Runnable runnable, String[] keys) {
+            this.runnable = runnable;
+            this.keys = Arrays.asList(keys);
+        }
+
+        @Override
+        public void run() {
+            try {
+                runnable.run();
+            } finally {
+                finish(this);
+            }
+        }
+    }
+}
@@ -28,11 +28,17 @@ import java.util.concurrent.Executor;
 
 /**
  * Execute network requests on the network thread.
+ * Independent requests run concurrently. Requests for the same SKU, purchase token or
+ * Instance ID run in the order they were made.
  * Fetch data from a {@link ServerFunctions} object and expose with {@link #getSubscriptions()}.
  */
 public class WebDataSource {
     private static volatile WebDataSource INSTANCE = null;
-    private Executor executor;
+    private static final String SKU_KEY = "sku:";
+    private static final String PURCHASE_TOKEN_KEY = "purchaseToken:";
+    private static final String INSTANCE_ID_KEY = "instanceId:";
+
+    private final RequestScheduler scheduler;
     private ServerFunctions serverFunctions;
 
     public static WebDataSource getInstance(AppExecutors executors,
@@ -47,8 +53,9 @@ public class WebDataSource {
         return INSTANCE;
     }
 
-    private WebDataSource(Executor executor, ServerFunctions serverFunctions) {
-        this.executor = executor;
+    // Package-private so tests can run requests against their own ServerFunctions.
+    WebDataSource(Executor executor, ServerFunctions serverFunctions) {
+        this.scheduler = new RequestScheduler(executor);
         this.serverFunctions = serverFunctions;
     }
 
@@ -83,12 +90,10 @@ public class WebDataSource {
      * GET request for subscription status.
      */
     public void updateSubscriptionStatus() {
-        executor.execute(new Runnable() {
+        scheduler.execute(new Runnable() {
             @Override
             public void run() {
-                synchronized (WebDataSource.class) {
-                    serverFunctions.updateSubscriptionStatus();
-                }
+                serverFunctions.updateSubscriptionStatus();
             }
         });
     }
@@ -97,55 +102,47 @@ public class WebDataSource {
      * POST request to register subscription.
      */
     public void registerSubscription(final String sku, final String purchaseToken) {
-        executor.execute(new Runnable() {
+        scheduler.execute(new Runnable() {
             @Override
             public void run() {
-                synchronized (WebDataSource.class) {
-                    serverFunctions.registerSubscription(sku, purchaseToken);
-                }
+                serverFunctions.registerSubscription(sku, purchaseToken);
             }
-        });
+        }, SKU_KEY + sku, PURCHASE_TOKEN_KEY + purchaseToken);
     }
 
     /**
      * POST request to transfer a subscription that is owned by someone else.
      */
     public void postTransferSubscriptionSync(final String sku, final String purchaseToken) {
-        executor.execute(new Runnable() {
+        scheduler.execute(new Runnable() {
             @Override
             public void run() {
-                synchronized (WebDataSource.class) {
-                    serverFunctions.transferSubscription(sku, purchaseToken);
-                }
+                serverFunctions.transferSubscription(sku, purchaseToken);
             }
-        });
+        }, SKU_KEY + sku, PURCHASE_TOKEN_KEY + purchaseToken);
     }
 
     /**
      * POST request to register an Instance ID.
      */
     public void postRegisterInstanceId(final String instanceId) {
-        executor.execute(new Runnable() {
+        scheduler.execute(new Runnable() {
             @Override
             public void run() {
-                synchronized (WebDataSource.class) {
-                    serverFunctions.registerInstanceId(instanceId);
-                }
+                serverFunctions.registerInstanceId(instanceId);
             }
-        });
+        }, INSTANCE_ID_KEY + instanceId);
     }
 
     /**
      * POST request to unregister an Instance ID.
      */
     public void postUnregisterInstanceId(final String instanceId) {
-        executor.execute(new Runnable() {
+        scheduler.execute(new Runnable() {
             @Override
             public void run() {
-                synchronized (WebDataSource.class) {
-                    serverFunctions.unregisterInstanceId(instanceId);
-                }
+                serverFunctions.unregisterInstanceId(instanceId);
             }
-        });
+        }, INSTANCE_ID_KEY + instanceId);
     }
 }
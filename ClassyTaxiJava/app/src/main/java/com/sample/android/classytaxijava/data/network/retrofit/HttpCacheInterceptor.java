@@ -0,0 +1,156 @@
+/*
+ * Copyright 2021 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.classytaxijava.data.network.retrofit;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import okhttp3.CacheControl;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * {@link Interceptor} that lets the OkHttp cache revalidate responses and serve them offline.
+ * <p>
+ * The server does not send caching headers, so every GET response is stored with max-age=0.
+ * The next request for the same URL is then sent with If-None-Match or If-Modified-Since,
+ * and the server can answer with 304 Not Modified instead of the full body. The server checks
+ * each conditional request with the ID token of the current user, so revalidated responses
+ * are never shared across users.
+ * <p>
+ * When a request for one of the offline paths fails without a response, the stored response is
+ * served instead, however old it is, as long as it was stored for the same user.
+ * <p>
+ * Add this as an application interceptor, after the interceptor that authenticates the
+ * request, and add {@link #networkInterceptor()} as a network interceptor.
+ */
+public class HttpCacheInterceptor implements Interceptor {
+
+    /**
+     * Identifies the signed-in user that stored responses belong to.
+     */
+    public interface UserIdProvider {
+        /**
+         * @return the ID of the current user, or an empty string if no user is signed in
+         */
+        @NonNull
+        String getCurrentUserId();
+    }
+
+    private static final String TAG = "HttpCacheInterceptor";
+    private static final String GET = "GET";
+    // Response header that records which user a stored response belongs to.
+    // It is only added to responses, and is never sent to the server.
+    private static final String CACHE_USER_HEADER = "X-Cache-User";
+    private static final CacheControl REVALIDATE = new CacheControl.Builder()
+            .maxAge(0, TimeUnit.SECONDS)
+            .build();
+    private static final CacheControl OFFLINE = new CacheControl.Builder()
+            .onlyIfCached()
+            .maxStale(Integer.MAX_VALUE, TimeUnit.SECONDS)
+            .build();
+
+    private final Set<String> offlinePaths;
+    private final HttpCacheMetrics metrics;
+    private final UserIdProvider userIdProvider;
+
+    /**
+     * @param metrics        counts of cache hits and bytes saved
+     * @param userIdProvider the current user, whose stored responses may be served offline
+     * @param offlinePaths   last path segments of the endpoints that may be served from the
+     *                       cache while offline
+     */
+    public HttpCacheInterceptor(HttpCacheMetrics metrics, UserIdProvider userIdProvider,
+                                String... offlinePaths) {
+        this.metrics = metrics;
+        this.userIdProvider = userIdProvider;
+        this.offlinePaths = new HashSet<>(Arrays.asList(offlinePaths));
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        if (!GET.equals(request.method())) {
+            return chain.proceed(request);
+        }
+        Response response;
+        try {
+            response = chain.proceed(request);
+        } catch (IOException e) {
+            response = proceedFromCache(chain, request);
+            if (response == null) {
+                throw e;
+            }
+            Log.i(TAG, "Serving cached " + request.url().encodedPath() + " while offline");
+        }
+        metrics.record(response);
+        return response;
+    }
+
+    /**
+     * Returns the stored response for the request, or null if there is none for this user.
+     */
+    @Nullable
+    private Response proceedFromCache(Chain chain, Request request) throws IOException {
+        if (!offlinePaths.contains(lastPathSegment(request))) {
+            return null;
+        }
+        Response response = chain.proceed(request.newBuilder().cacheControl(OFFLINE).build());
+        // A request that cannot be served from the cache gets 504 Unsatisfiable Request.
+        if (!response.isSuccessful() || !userIdProvider.getCurrentUserId()
+                .equals(response.header(CACHE_USER_HEADER))) {
+            response.close();
+            return null;
+        }
+        return response;
+    }
+
+    /**
+     * Returns the interceptor that marks GET responses for revalidation before they are stored.
+     */
+    public Interceptor networkInterceptor() {
+        return new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) throws IOException {
+                Request request = chain.request();
+                Response response = chain.proceed(request);
+                if (!GET.equals(request.method()) || response.cacheControl().noStore()) {
+                    return response;
+                }
+                return response.newBuilder()
+                        .removeHeader("Pragma")
+                        .header("Cache-Control", REVALIDATE.toString())
+                        .header(CACHE_USER_HEADER, userIdProvider.getCurrentUserId())
+                        .build();
+            }
+        };
+    }
+
+    private static String lastPathSegment(Request request) {
+        List<String> segments = request.url().pathSegments();
+        return segments.get(segments.size() - 1);
+    }
+}
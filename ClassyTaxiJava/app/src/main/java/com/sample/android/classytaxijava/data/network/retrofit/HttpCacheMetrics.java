@@ -0,0 +1,125 @@
+/*
+ * Copyright 2021 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.classytaxijava.data.network.retrofit;
+
+import java.net.HttpURLConnection;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Response;
+
+/**
+ * Count how many GET requests were answered by the HTTP cache, and how many response bytes
+ * did not have to be downloaded because of it.
+ * <p>
+ * A request is a hit when the server confirmed the cached response with 304 Not Modified, or when
+ * the cached response was served without the network, such as while offline.
+ */
+public class HttpCacheMetrics {
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong conditionalHitCount = new AtomicLong();
+    private final AtomicLong cacheOnlyHitCount = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+
+    /**
+     * Record the final response of a GET request.
+     */
+    void record(Response response) {
+        requestCount.incrementAndGet();
+        Response cacheResponse = response.cacheResponse();
+        if (cacheResponse == null) {
+            return;
+        }
+        Response networkResponse = response.networkResponse();
+        if (networkResponse == null) {
+            cacheOnlyHitCount.incrementAndGet();
+        } else if (networkResponse.code() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            conditionalHitCount.incrementAndGet();
+        } else {
+            // The cached response was out of date and the server sent a new one.
+            return;
+        }
+        // The size is taken from the stored response: when OkHttp transparently decompresses a
+        // gzip response, it removes Content-Length from the response it returns.
+        long contentLength = contentLength(cacheResponse);
+        if (contentLength > 0) {
+            bytesSaved.addAndGet(contentLength);
+        }
+    }
+
+    private static long contentLength(Response response) {
+        String contentLength = response.header("Content-Length");
+        if (contentLength == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentLength);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Number of GET requests that went through the cache.
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Number of requests that the server answered with 304 Not Modified.
+     */
+    public long getConditionalHitCount() {
+        return conditionalHitCount.get();
+    }
+
+    /**
+     * Number of requests that were served from the cache without the network.
+     */
+    public long getCacheOnlyHitCount() {
+        return cacheOnlyHitCount.get();
+    }
+
+    /**
+     * Number of response body bytes that were served from the cache instead of the network, as
+     * they were sent by the server, so compressed responses count their compressed size.
+     */
+    public long getBytesSaved() {
+        return bytesSaved.get();
+    }
+
+    /**
+     * Fraction of requests that were answered by the cache, or 0 if there were none.
+     */
+    public double getHitRatio() {
+        long requests = requestCount.get();
+        if (requests == 0) {
+            return 0.0;
+        }
+        return (double) (conditionalHitCount.get() + cacheOnlyHitCount.get()) / requests;
+    }
+
+    @Override
+    public String toString() {
+        return "HttpCacheMetrics{" +
+                "requests=" + requestCount.get() +
+                ", conditionalHits=" + conditionalHitCount.get() +
+                ", cacheOnlyHits=" + cacheOnlyHitCount.get() +
+                ", hitRatio=" + getHitRatio() +
+                ", bytesSaved=" + bytesSaved.get() +
+                '}';
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2021 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.classytaxijava.data.network.retrofit;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Collapse identical requests that are made while one is already in flight.
+ * <p>
+ * Requests are identified by a key, such as the endpoint and the signed-in user. The first caller
+ * for a key starts the request, and callers that arrive before it completes are attached to it and
+ * receive the same response. A listener that is attached more than once to the same request is
+ * only called once. Successful responses can also be kept for a short time, in which case later
+ * callers receive the cached response without a new request.
+ * <p>
+ * After {@link #invalidate}, requests already in flight are detached from their keys: they still
+ * deliver their responses to the listeners attached to them, but later callers start a new
+ * request instead of joining one that may return outdated data.
+ *
+ * @param <T> Type of the response
+ */
+public class RequestCollapser<T> {
+
+    /**
+     * Receives the response of a collapsed request.
+     */
+    public interface Listener<T> {
+        /**
+         * @param response the response, or null if the request failed
+         */
+        void onResponse(@Nullable T response);
+    }
+
+    /**
+     * A request started by {@link #join}, to be passed to {@link #complete} with its result.
+     */
+    public static final class Request<T> {
+        private final String key;
+        private final Set<Listener<T>> listeners = new LinkedHashSet<>();
+        private boolean completed;
+
+        private Request(String key) {
+            this.key = key;
+        }
+    }
+
+    private static final class CachedResponse<T> {
+        final T response;
+        final long responseTimeMillis;
+
+        CachedResponse(T response, long responseTimeMillis) {
+            this.response = response;
+            this.responseTimeMillis = responseTimeMillis;
+        }
+    }
+
+    private final long cacheDurationMillis;
+    // The in-flight request of each key that later callers can join.
+    private final Map<String, Request<T>> inFlightRequests = new HashMap<>();
+    private final Map<String, CachedResponse<T>> cachedResponses = new HashMap<>();
+    private long issuedRequestCount;
+    private long collapsedRequestCount;
+    private long cachedResponseCount;
+
+    /**
+     * @param cacheDurationMillis how long a successful response is served to later callers,
+     *                            or 0 to only collapse requests that are in flight
+     */
+    public RequestCollapser(long cacheDurationMillis) {
+        this.cacheDurationMillis = cacheDurationMillis;
+    }
+
+    /**
+     * Attach the listener to the request for the key.
+     * <p>
+     * If a fresh response is cached, the listener is called with it right away. Otherwise the
+     * listener is attached to the in-flight request, or a new request is started if there is
+     * none, in which case the caller must make the request and pass its result to
+     * {@link #complete}.
+     *
+     * @return the new request if the caller must make it, or null otherwise
+     */
+    @Nullable
+    public Request<T> join(@NonNull String key, @NonNull Listener<T> listener) {
+        T cachedResponse = null;
+        synchronized (this) {
+            CachedResponse<T> cached = cachedResponses.get(key);
+            if (cached != null && SystemClock.elapsedRealtime() - cached.responseTimeMillis
+                    < cacheDurationMillis) {
+                cachedResponseCount++;
+                cachedResponse = cached.response;
+            } else {
+                Request<T> request = inFlightRequests.get(key);
+                if (request != null) {
+                    request.listeners.add(listener);
+                    collapsedRequestCount++;
+                    return null;
+                }
+                request = new Request<>(key);
+                request.listeners.add(listener);
+                inFlightRequests.put(key, request);
+                issuedRequestCount++;
+                return request;
+            }
+        }
+        listener.onResponse(cachedResponse);
+        return null;
+    }
+
+    /**
+     * Deliver the result of the request to every attached listener. The response is only cached
+     * if the request has not been detached by {@link #invalidate} in the meantime.
+     *
+     * @param request  the request returned by {@link #join}
+     * @param response the response, or null if the request failed
+     */
+    public void complete(@NonNull Request<T> request, @Nullable T response) {
+        List<Listener<T>> listeners;
+        synchronized (this) {
+            if (request.completed) {
+                return;
+            }
+            request.completed = true;
+            listeners = new ArrayList<>(request.listeners);
+            if (inFlightRequests.get(request.key) == request) {
+                inFlightRequests.remove(request.key);
+                if (response != null && cacheDurationMillis > 0) {
+                    cachedResponses.put(request.key,
+                            new CachedResponse<>(response, SystemClock.elapsedRealtime()));
+                }
+            }
+        }
+        for (Listener<T> listener : listeners) {
+            listener.onResponse(response);
+        }
+    }
+
+    /**
+     * Drop every cached response, for example after a request that changes the data on the
+     * server. Requests that are in flight are detached from their keys: they still deliver their
+     * responses to the listeners already attached, but the responses are not cached and the next
+     * caller for the key starts a new request.
+     */
+    public synchronized void invalidate() {
+        cachedResponses.clear();
+        inFlightRequests.clear();
+    }
+
+    /**
+     * Number of requests that were actually made.
+     */
+    public synchronized long getIssuedRequestCount() {
+        return issuedRequestCount;
+    }
+
+    /**
+     * Number of callers that were attached to a request already in flight.
+     */
+    public synchronized long getCollapsedRequestCount() {
+        return collapsedRequestCount;
+    }
+
+    /**
+     * Number of callers that were served a cached response.
+     */
+    public synchronized long getCachedResponseCount() {
+        return cachedResponseCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RequestCollapser{" +
+                "issued=" + issuedRequestCount +
+                ", collapsed=" + collapsedRequestCount +
+                ", cached=" + cachedResponseCount +
+                '}';
+    }
+}
@@ -16,15 +16,19 @@
 
 package com.sample.android.classytaxijava.data.network.retrofit;
 
+import android.content.Context;
 import android.text.TextUtils;
 import android.util.Log;
 
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
 import com.sample.android.classytaxijava.data.ContentResource;
 import com.sample.android.classytaxijava.data.SubscriptionStatus;
 import com.sample.android.classytaxijava.data.SubscriptionStatusList;
 import com.sample.android.classytaxijava.data.network.firebase.ServerFunctions;
 import com.sample.android.classytaxijava.data.network.retrofit.authentication.RetrofitClient;
 
+import java.io.File;
 import java.net.HttpURLConnection;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -45,22 +49,52 @@ import static com.sample.android.classytaxijava.BuildConfig.SERVER_URL;
 public class ServerFunctionImpl implements ServerFunctions {
 
     private static final String TAG = "RemoteServerFunction";
+    private static final long SUBSCRIPTION_STATUS_CACHE_DURATION = 1000L * 5L; // 5 seconds
+    private static final String HTTP_CACHE_DIRECTORY = "http-cache";
     private static volatile ServerFunctions INSTANCE = null;
     private final MutableLiveData<List<SubscriptionStatus>> subscriptions = new MutableLiveData<>();
     private final MutableLiveData<ContentResource> basicContent = new MutableLiveData<>();
     private final MutableLiveData<ContentResource> premiumContent = new MutableLiveData<>();
     private MutableLiveData<Boolean> loading = new MutableLiveData<>();
-    private final RetrofitClient<SubscriptionStatusApiCall> retrofitClient = new RetrofitClient<>(SERVER_URL, SubscriptionStatusApiCall.class);
+    private final RetrofitClient<SubscriptionStatusApiCall> retrofitClient;
     private final PendingRequestCounter pendingRequestCounter = new PendingRequestCounter();
 
-    private ServerFunctionImpl() {
+    /**
+     * Subscription status is fetched on user change, manual refresh, activity recreation and
+     * server messages, which often overlap. Requests for the same user share one call.
+     */
+    private final RequestCollapser<SubscriptionStatusList> subscriptionStatusCollapser =
+            new RequestCollapser<>(SUBSCRIPTION_STATUS_CACHE_DURATION);
+    private final RequestCollapser.Listener<SubscriptionStatusList> subscriptionStatusListener =
+            new RequestCollapser.Listener<SubscriptionStatusList>() {
+                @Override
+                public void onResponse(@Nullable SubscriptionStatusList response) {
+                    if (response != null) {
+                        onSuccessfulSubscriptionCall(response, subscriptions);
+                    }
+                }
+            };
+
+    private ServerFunctionImpl(Context context) {
+        // Content can be shown from the cache while offline. Subscription status is only
+        // revalidated, so entitlements are always confirmed by the server.
+        retrofitClient = new RetrofitClient<>(SERVER_URL, SubscriptionStatusApiCall.class,
+                new File(context.getCacheDir(), HTTP_CACHE_DIRECTORY),
+                SubscriptionStatusApiCall.BASIC_CONTENT,
+                SubscriptionStatusApiCall.PREMIUM_CONTENT);
     }
 
-    public static ServerFunctions getInstance() {
+    /**
+     * Returns the single instance, creating it on first use.
+     * <p>
+     * The context is used to place the HTTP cache in the app's cache directory. Only its
+     * application context is kept.
+     */
+    public static ServerFunctions getInstance(Context context) {
         if (INSTANCE == null) {
             synchronized (ServerFunctionImpl.class) {
                 if (INSTANCE == null) {
-                    INSTANCE = new ServerFunctionImpl();
+                    INSTANCE = new ServerFunctionImpl(context.getApplicationContext());
                 }
             }
         }
@@ -136,18 +170,48 @@ public class ServerFunctionImpl implements ServerFunctions {
 
     /**
      * Fetches the Subscription Status from the server.
+     * <p>
+     * If a fetch for the same user is already in flight, or has just completed, its response is
+     * used instead of making another request.
      */
     public void updateSubscriptionStatus() {
         final String method = "updateSubscriptionStatus";
+        final String key = SubscriptionStatusApiCall.SUBSCRIPTION_STATUS + ":" + getCurrentUserId();
+        final RequestCollapser.Request<SubscriptionStatusList> request =
+                subscriptionStatusCollapser.join(key, subscriptionStatusListener);
+        if (request == null) {
+            Log.d(TAG, method + " collapsed: " + subscriptionStatusCollapser);
+            return;
+        }
         pendingRequestCounter.incrementRequestCount();
         retrofitClient.getService().fetchSubscriptionStatus().enqueue(new RetrofitResponseHandlerCallback<SubscriptionStatusList>(method, pendingRequestCounter) {
             @Override
             protected void onSuccess(SubscriptionStatusList response) {
-                onSuccessfulSubscriptionCall(response, subscriptions);
+                subscriptionStatusCollapser.complete(request, response);
+            }
+
+            @Override
+            protected void onError(int errorCode, @Nullable String errorMessage) {
+                super.onError(errorCode, errorMessage);
+                subscriptionStatusCollapser.complete(request, null);
             }
         });
     }
 
+    /**
+     * Hit ratio and bytes saved by the HTTP cache.
+     */
+    public HttpCacheMetrics getHttpCacheMetrics() {
+        return retrofitClient.getCacheMetrics();
+    }
+
+    /**
+     * Counts of subscription status fetches that were made, collapsed and served from the cache.
+     */
+    public RequestCollapser<SubscriptionStatusList> getSubscriptionStatusCollapser() {
+        return subscriptionStatusCollapser;
+    }
+
     /**
      * Registers a subscription with the server and posts successful results to
      * {@link #subscriptions}.
@@ -160,15 +224,20 @@ public class ServerFunctionImpl implements ServerFunctions {
         SubscriptionStatus data = new SubscriptionStatus();
         data.setSku(sku);
         data.setPurchaseToken(purchaseToken);
+        // The cached subscription status will no longer match the server.
+        subscriptionStatusCollapser.invalidate();
         pendingRequestCounter.incrementRequestCount();
         retrofitClient.getService().registerSubscription(data).enqueue(new RetrofitResponseHandlerCallback<SubscriptionStatusList>(method, pendingRequestCounter) {
             @Override
             protected void onSuccess(SubscriptionStatusList response) {
+                // A status fetch may have been answered before the server saw this request.
+                subscriptionStatusCollapser.invalidate();
                 onSuccessfulSubscriptionCall(response, subscriptions);
             }
 
             @Override
             protected void onError(int errorCode, @Nullable String errorMessage) {
+                subscriptionStatusCollapser.invalidate();
                 if (errorCode == HttpURLConnection.HTTP_CONFLICT) {
                     Log.w(TAG, "Subscription already exists");
                     List<SubscriptionStatus> oldSubscriptions =
@@ -197,12 +266,22 @@ public class ServerFunctionImpl implements ServerFunctions {
         SubscriptionStatus data = new SubscriptionStatus();
         data.setSku(sku);
         data.setPurchaseToken(purchaseToken);
+        // The cached subscription status will no longer match the server.
+        subscriptionStatusCollapser.invalidate();
         pendingRequestCounter.incrementRequestCount();
         retrofitClient.getService().transferSubscription(data).enqueue(new RetrofitResponseHandlerCallback<SubscriptionStatusList>(method, pendingRequestCounter) {
             @Override
             protected void onSuccess(SubscriptionStatusList response) {
+                // A status fetch may have been answered before the server saw this request.
+                subscriptionStatusCollapser.invalidate();
                 onSuccessfulSubscriptionCall(response, subscriptions);
             }
+
+            @Override
+            protected void onError(int errorCode, @Nullable String errorMessage) {
+                subscriptionStatusCollapser.invalidate();
+                super.onError(errorCode, errorMessage);
+            }
         });
     }
 
@@ -248,6 +327,14 @@ public class ServerFunctionImpl implements ServerFunctions {
 
     // Helper functions
 
+    /**
+     * Returns the ID of the signed-in user, or an empty string if there is none.
+     */
+    private static String getCurrentUserId() {
+        FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+        return user == null ? "" : user.getUid();
+    }
+
     /**
      * Inserts or updates the subscription to the list of existing subscriptions.
      * <p>
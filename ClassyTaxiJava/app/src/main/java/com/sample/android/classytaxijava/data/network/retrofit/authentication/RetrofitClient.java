@@ -16,16 +16,25 @@
 
 package com.sample.android.classytaxijava.data.network.retrofit.authentication;
 
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.sample.android.classytaxijava.data.network.retrofit.HttpCacheInterceptor;
+import com.sample.android.classytaxijava.data.network.retrofit.HttpCacheMetrics;
 import com.sample.android.classytaxijava.data.network.retrofit.ServerFunctionImpl;
 
+import java.io.File;
+import java.lang.reflect.Method;
 import java.util.concurrent.TimeUnit;
 
+import androidx.annotation.NonNull;
+import okhttp3.Cache;
 import okhttp3.OkHttpClient;
 import retrofit2.Retrofit;
 import retrofit2.converter.gson.GsonConverterFactory;
 import retrofit2.converter.scalars.ScalarsConverterFactory;
+import retrofit2.http.GET;
 
 /**
  * Creates Retrofit instances that
@@ -36,14 +45,41 @@ import retrofit2.converter.scalars.ScalarsConverterFactory;
  */
 public class RetrofitClient<S> {
     private final S service;
+    private final HttpCacheMetrics cacheMetrics = new HttpCacheMetrics();
     private static final int NETWORK_TIMEOUT_SECONDS = 60;
+    /**
+     * Disk space for one stored response. The cache keeps one entry per GET endpoint: the body,
+     * plus a metadata file with the headers and, over HTTPS, the server certificate chain.
+     * Content and subscription status bodies are small JSON documents, so most of an entry is
+     * metadata; the rest of the budget leaves room for subscription lists with many purchases.
+     * HttpCacheInterceptorTest measures stored entries against it.
+     */
+    public static final long MAX_CACHE_ENTRY_BYTES = 64L * 1024L; // 64 KiB
 
-    public RetrofitClient(String baseUrl, Class<S> serviceClass) {
+    /**
+     * @param cacheDirectory directory for the HTTP cache
+     * @param offlinePaths   endpoints whose cached responses may be served while offline
+     */
+    public RetrofitClient(String baseUrl, Class<S> serviceClass, File cacheDirectory,
+                          String... offlinePaths) {
+        final HttpCacheInterceptor cacheInterceptor = new HttpCacheInterceptor(cacheMetrics,
+                new HttpCacheInterceptor.UserIdProvider() {
+                    @NonNull
+                    @Override
+                    public String getCurrentUserId() {
+                        FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+                        return user == null ? "" : user.getUid();
+                    }
+                }, offlinePaths);
         final OkHttpClient okHttpClient = new OkHttpClient.Builder()
                 .connectTimeout(NETWORK_TIMEOUT_SECONDS, TimeUnit.SECONDS)
                 .readTimeout(NETWORK_TIMEOUT_SECONDS, TimeUnit.SECONDS)
                 .writeTimeout(NETWORK_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .cache(new Cache(cacheDirectory, getCacheSizeBytes(serviceClass)))
                 .addInterceptor(new UserIdTokenInterceptor())
+                // Runs after the ID token is added, so offline retries are authenticated too.
+                .addInterceptor(cacheInterceptor)
+                .addNetworkInterceptor(cacheInterceptor.networkInterceptor())
                 .build();
 
         final Gson gson = new GsonBuilder().create();
@@ -57,7 +93,27 @@ public class RetrofitClient<S> {
         service = retrofit.create(serviceClass);
     }
 
+    /**
+     * Returns the cache size that holds the response of every GET endpoint of the service.
+     */
+    public static long getCacheSizeBytes(Class<?> serviceClass) {
+        int getEndpointCount = 0;
+        for (Method method : serviceClass.getMethods()) {
+            if (method.isAnnotationPresent(GET.class)) {
+                getEndpointCount++;
+            }
+        }
+        return Math.max(1, getEndpointCount) * MAX_CACHE_ENTRY_BYTES;
+    }
+
     public S getService() {
         return service;
     }
+
+    /**
+     * Hit ratio and bytes saved by the HTTP cache.
+     */
+    public HttpCacheMetrics getCacheMetrics() {
+        return cacheMetrics;
+    }
 }
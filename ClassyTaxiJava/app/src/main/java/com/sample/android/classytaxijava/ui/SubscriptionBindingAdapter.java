@@ -275,13 +275,20 @@ public class SubscriptionBindingAdapter {
     }
 
     /**
-     * Update views on the Settings fragment when the subscription changes.
+     * Update views on the Settings fragment when the basic or premium subscriptions change.
      * <p>
-     * When the subscription changes, the binding adapter triggers this view in the layout XML.
-     * See the layout XML files for the app:updateSettingsViews attribute.
+     * When either list changes, the binding adapter triggers this view in the layout XML.
+     * See the layout XML files for the app:basicSubscriptions and app:premiumSubscriptions
+     * attributes.
+     * <p>
+     * A SKU can have more than one row: the last one sets the button text, and a transfer is
+     * required if any of them requires it.
      */
-    @BindingAdapter("updateSettingsViews")
-    public static void updateSettingsViews(View view, List<SubscriptionStatus> subscriptions) {
+    @BindingAdapter({"basicSubscriptions", "premiumSubscriptions"})
+    public static void updateSettingsViews(
+            View view,
+            @Nullable List<SubscriptionStatus> basicSubscriptions,
+            @Nullable List<SubscriptionStatus> premiumSubscriptions) {
         TextView premiumBtn = view.findViewById(R.id.subscription_option_premium_button);
         TextView basicBtn = view.findViewById(R.id.subscription_option_basic_button);
         View transferMsg = view.findViewById(R.id.settings_transfer_message);
@@ -296,23 +303,21 @@ public class SubscriptionBindingAdapter {
         // Update based on subscription information.
         boolean basicRequiresTransfer = false;
         boolean premiumRequiresTransfer = false;
-        if (subscriptions != null) {
-            for (SubscriptionStatus subscription : subscriptions) {
-                String sku = subscription.getSku();
-                if (sku != null) {
-                    if (Constants.BASIC_SKU.equals(sku)) {
-                        basicBtn.setText(SubscriptionUtilities
-                                .basicTextForSubscription(view.getResources(), subscription));
-                        if (BillingUtilities.isTransferRequired(subscription)) {
-                            basicRequiresTransfer = true;
-                        }
-                    } else if (Constants.PREMIUM_SKU.equals(sku)) {
-                        premiumBtn.setText(SubscriptionUtilities
-                                .premiumTextForSubscription(view.getResources(), subscription));
-                        if (BillingUtilities.isTransferRequired(subscription)) {
-                            premiumRequiresTransfer = true;
-                        }
-                    }
+        if (basicSubscriptions != null) {
+            for (SubscriptionStatus subscription : basicSubscriptions) {
+                basicBtn.setText(SubscriptionUtilities
+                        .basicTextForSubscription(view.getResources(), subscription));
+                if (BillingUtilities.isTransferRequired(subscription)) {
+                    basicRequiresTransfer = true;
+                }
+            }
+        }
+        if (premiumSubscriptions != null) {
+            for (SubscriptionStatus subscription : premiumSubscriptions) {
+                premiumBtn.setText(SubscriptionUtilities
+                        .premiumTextForSubscription(view.getResources(), subscription));
+                if (BillingUtilities.isTransferRequired(subscription)) {
+                    premiumRequiresTransfer = true;
                 }
             }
         }
@@ -20,6 +20,7 @@ import android.app.Application;
 import android.util.Log;
 
 import com.google.firebase.iid.FirebaseInstanceId;
+import com.sample.android.classytaxijava.Constants;
 import com.sample.android.classytaxijava.SubApp;
 import com.sample.android.classytaxijava.data.ContentResource;
 import com.sample.android.classytaxijava.data.DataRepository;
@@ -49,6 +50,16 @@ public class SubscriptionStatusViewModel extends AndroidViewModel {
      */
     public LiveData<List<SubscriptionStatus>> subscriptions;
 
+    /**
+     * Basic subscriptions LiveData, only updated when the basic subscriptions change
+     */
+    public LiveData<List<SubscriptionStatus>> basicSubscriptions;
+
+    /**
+     * Premium subscriptions LiveData, only updated when the premium subscriptions change
+     */
+    public LiveData<List<SubscriptionStatus>> premiumSubscriptions;
+
     public LiveData<ContentResource> basicContent;
 
     public LiveData<ContentResource> premiumContent;
@@ -64,6 +75,8 @@ public class SubscriptionStatusViewModel extends AndroidViewModel {
         repository = ((SubApp) application).getRepository();
         loading = repository.getLoading();
         subscriptions = repository.getSubscriptions();
+        basicSubscriptions = repository.getSubscriptions(Constants.BASIC_SKU);
+        premiumSubscriptions = repository.getSubscriptions(Constants.PREMIUM_SKU);
         basicContent = repository.getBasicContent();
         premiumContent = repository.getPremiumContent();
     }
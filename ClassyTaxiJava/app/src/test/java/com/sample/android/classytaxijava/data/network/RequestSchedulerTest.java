@@ -0,0 +1,182 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.classytaxijava.data.network;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RequestSchedulerTest {
+    private final ExecutorService threadPool = Executors.newFixedThreadPool(4);
+
+    @After
+    public void tearDown() {
+        threadPool.shutdownNow();
+    }
+
+    @Test
+    public void requestsWithSameKeyRunInSubmissionOrder() {
+        QueueingExecutor executor = new QueueingExecutor();
+        RequestScheduler scheduler = new RequestScheduler(executor);
+        final List<String> order = new ArrayList<>();
+
+        scheduler.execute(recorder(order, "first"), "sku");
+        scheduler.execute(recorder(order, "second"), "sku");
+        scheduler.execute(recorder(order, "third"), "sku", "token");
+
+        assertEquals("Only the first request may start", 1, executor.size());
+        executor.runNext();
+        assertEquals("The second request starts once the first has finished",
+                1, executor.size());
+        executor.runNext();
+        executor.runNext();
+        assertEquals(0, executor.size());
+        assertEquals(Arrays.asList("first", "second", "third"), order);
+    }
+
+    @Test
+    public void requestsWithSameKeyRunInSubmissionOrderOnThreadPool() throws Exception {
+        RequestScheduler scheduler = new RequestScheduler(threadPool);
+        final int requestCount = 50;
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(requestCount);
+
+        for (int i = 0; i < requestCount; i++) {
+            final int index = i;
+            scheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    order.add(index);
+                    done.countDown();
+                }
+            }, "sku");
+        }
+
+        assertTrue("Requests did not finish", done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < requestCount; i++) {
+            assertEquals(Integer.valueOf(i), order.get(i));
+        }
+    }
+
+    @Test
+    public void requestsWithUnrelatedKeysRunConcurrently() throws Exception {
+        RequestScheduler scheduler = new RequestScheduler(threadPool);
+        // Each request waits for the other one, which only works if both are running.
+        final CyclicBarrier bothRunning = new CyclicBarrier(2);
+        final CountDownLatch done = new CountDownLatch(2);
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Runnable request = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    bothRunning.await(5, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    errors.add(e);
+                } finally {
+                    done.countDown();
+                }
+            }
+        };
+
+        scheduler.execute(request, "basic");
+        scheduler.execute(request, "premium");
+
+        assertTrue("Requests did not finish", done.await(10, TimeUnit.SECONDS));
+        assertEquals(Collections.emptyList(), errors);
+    }
+
+    @Test
+    public void requestsWithoutKeysStartRightAway() {
+        QueueingExecutor executor = new QueueingExecutor();
+        RequestScheduler scheduler = new RequestScheduler(executor);
+        final List<String> order = new ArrayList<>();
+
+        scheduler.execute(recorder(order, "keyed"), "sku");
+        scheduler.execute(recorder(order, "unkeyed"));
+
+        assertEquals(2, executor.size());
+    }
+
+    @Test
+    public void failedRequestReleasesItsKeys() {
+        QueueingExecutor executor = new QueueingExecutor();
+        RequestScheduler scheduler = new RequestScheduler(executor);
+        final List<String> order = new ArrayList<>();
+
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("request failed");
+            }
+        }, "sku");
+        scheduler.execute(recorder(order, "after failure"), "sku");
+
+        assertEquals(1, executor.size());
+        try {
+            executor.runNext();
+            fail("The failure must reach the executor");
+        } catch (IllegalStateException expected) {
+            // The scheduler must not swallow the failure.
+        }
+        assertEquals("The next request starts after a failure", 1, executor.size());
+        executor.runNext();
+        assertEquals(Collections.singletonList("after failure"), order);
+    }
+
+    private static Runnable recorder(final List<String> order, final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                order.add(name);
+            }
+        };
+    }
+
+    /**
+     * Holds the started requests until the test runs them, one at a time.
+     */
+    private static final class QueueingExecutor implements Executor {
+        private final List<Runnable> queued = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable runnable) {
+            queued.add(runnable);
+        }
+
+        int size() {
+            return queued.size();
+        }
+
+        void runNext() {
+            queued.remove(0).run();
+        }
+    }
+}
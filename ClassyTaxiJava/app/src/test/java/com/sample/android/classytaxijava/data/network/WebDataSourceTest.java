@@ -0,0 +1,228 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.classytaxijava.data.network;
+
+import androidx.lifecycle.LiveData;
+
+import com.sample.android.classytaxijava.data.ContentResource;
+import com.sample.android.classytaxijava.data.SubscriptionStatus;
+import com.sample.android.classytaxijava.data.network.firebase.ServerFunctions;
+import com.sample.android.classytaxijava.data.network.retrofit.SubscriptionStatusApiCall;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs WebDataSource requests against a local server that answers every request after a delay.
+ * <p>
+ * The server functions here block until the response has arrived, so a request holds its network
+ * thread for the whole round trip. With a class-wide lock, every request would wait for the one
+ * before it; with per-key scheduling, only requests for the same SKU or purchase token do.
+ */
+public class WebDataSourceTest {
+    private static final long RESPONSE_DELAY_MILLIS = 500;
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+    private final MockWebServer server = new MockWebServer();
+    // The same pool size as AppExecutors.networkIO.
+    private final ExecutorService networkIO = Executors.newFixedThreadPool(3);
+    private BlockingServerFunctions serverFunctions;
+    private WebDataSource webDataSource;
+
+    @Before
+    public void setUp() throws IOException {
+        server.start();
+        for (int i = 0; i < 3; i++) {
+            server.enqueue(new MockResponse()
+                    .setBodyDelay(RESPONSE_DELAY_MILLIS, TimeUnit.MILLISECONDS)
+                    .setBody("{\"subscriptions\":[]}"));
+        }
+        serverFunctions = new BlockingServerFunctions(server, 3);
+        webDataSource = new WebDataSource(networkIO, serverFunctions);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        networkIO.shutdownNow();
+        server.shutdown();
+    }
+
+    @Test
+    public void unrelatedRequestsOverlap() throws Exception {
+        long startNanos = System.nanoTime();
+        webDataSource.registerSubscription("basic_subscription", "token1");
+        webDataSource.registerSubscription("premium_subscription", "token2");
+        webDataSource.updateSubscriptionStatus();
+
+        serverFunctions.awaitResponses();
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+        assertEquals(Collections.emptyList(), serverFunctions.errors);
+        assertEquals("All three requests must be in flight together",
+                3, serverFunctions.maxInFlight.get());
+        assertTrue("Requests took " + elapsedMillis + " ms, as if run one after another",
+                elapsedMillis < 2 * RESPONSE_DELAY_MILLIS);
+    }
+
+    @Test
+    public void requestsForSameSkuRunOneAfterAnother() throws Exception {
+        long startNanos = System.nanoTime();
+        webDataSource.registerSubscription("basic_subscription", "token1");
+        webDataSource.postTransferSubscriptionSync("basic_subscription", "token1");
+        webDataSource.registerSubscription("basic_subscription", "token2");
+
+        serverFunctions.awaitResponses();
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+        assertEquals(Collections.emptyList(), serverFunctions.errors);
+        assertEquals(1, serverFunctions.maxInFlight.get());
+        assertTrue(elapsedMillis >= 3 * RESPONSE_DELAY_MILLIS);
+        assertEquals(Arrays.asList(
+                "/" + SubscriptionStatusApiCall.REGISTER_SUBSCRIPTION,
+                "/" + SubscriptionStatusApiCall.TRANSFER_SUBSCRIPTION,
+                "/" + SubscriptionStatusApiCall.REGISTER_SUBSCRIPTION),
+                Arrays.asList(server.takeRequest().getPath(), server.takeRequest().getPath(),
+                        server.takeRequest().getPath()));
+    }
+
+    /**
+     * Server functions that make each call synchronously and track how many are in flight.
+     */
+    private static final class BlockingServerFunctions implements ServerFunctions {
+        private final MockWebServer server;
+        private final OkHttpClient client = new OkHttpClient();
+        private final CountDownLatch responses;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+
+        BlockingServerFunctions(MockWebServer server, int expectedResponses) {
+            this.server = server;
+            this.responses = new CountDownLatch(expectedResponses);
+        }
+
+        void awaitResponses() throws InterruptedException {
+            assertTrue("Requests did not finish", responses.await(10, TimeUnit.SECONDS));
+        }
+
+        private void call(String path, String method, String body) {
+            int running = inFlight.incrementAndGet();
+            int max;
+            do {
+                max = maxInFlight.get();
+            } while (running > max && !maxInFlight.compareAndSet(max, running));
+            Request request = new Request.Builder()
+                    .url(server.url("/" + path))
+                    .method(method, body == null ? null : RequestBody.create(JSON, body))
+                    .build();
+            try (Response response = client.newCall(request).execute()) {
+                response.body().string();
+            } catch (IOException e) {
+                errors.add(e);
+            } finally {
+                inFlight.decrementAndGet();
+                responses.countDown();
+            }
+        }
+
+        private static String subscriptionJson(String sku, String purchaseToken) {
+            return "{\"sku\":\"" + sku + "\",\"purchaseToken\":\"" + purchaseToken + "\"}";
+        }
+
+        @Override
+        public LiveData<Boolean> getLoading() {
+            return null;
+        }
+
+        @Override
+        public LiveData<List<SubscriptionStatus>> getSubscriptions() {
+            return null;
+        }
+
+        @Override
+        public LiveData<ContentResource> getBasicContent() {
+            return null;
+        }
+
+        @Override
+        public LiveData<ContentResource> getPremiumContent() {
+            return null;
+        }
+
+        @Override
+        public void updateBasicContent() {
+            call(SubscriptionStatusApiCall.BASIC_CONTENT, "GET", null);
+        }
+
+        @Override
+        public void updatePremiumContent() {
+            call(SubscriptionStatusApiCall.PREMIUM_CONTENT, "GET", null);
+        }
+
+        @Override
+        public void updateSubscriptionStatus() {
+            call(SubscriptionStatusApiCall.SUBSCRIPTION_STATUS, "GET", null);
+        }
+
+        @Override
+        public void registerSubscription(String sku, String purchaseToken) {
+            call(SubscriptionStatusApiCall.REGISTER_SUBSCRIPTION, "PUT",
+                    subscriptionJson(sku, purchaseToken));
+        }
+
+        @Override
+        public void transferSubscription(String sku, String purchaseToken) {
+            call(SubscriptionStatusApiCall.TRANSFER_SUBSCRIPTION, "PUT",
+                    subscriptionJson(sku, purchaseToken));
+        }
+
+        @Override
+        public void registerInstanceId(String instanceId) {
+            call(SubscriptionStatusApiCall.REGISTER_INSTANCE_ID, "PUT",
+                    "{\"instanceId\":\"" + instanceId + "\"}");
+        }
+
+        @Override
+        public void unregisterInstanceId(String instanceId) {
+            call(SubscriptionStatusApiCall.UNREGISTER_INSTANCE_ID, "PUT",
+                    "{\"instanceId\":\"" + instanceId + "\"}");
+        }
+    }
+}
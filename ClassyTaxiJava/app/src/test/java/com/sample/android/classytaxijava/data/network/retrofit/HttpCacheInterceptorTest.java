@@ -0,0 +1,251 @@
+/*
+ * Copyright 2021 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.classytaxijava.data.network.retrofit;
+
+import com.sample.android.classytaxijava.data.network.retrofit.authentication.RetrofitClient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import androidx.annotation.NonNull;
+import okhttp3.Cache;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HttpCacheInterceptorTest {
+    private static final String BASIC_CONTENT_JSON =
+            "{\"url\":\"https://example.firebaseapp.com/content/basic.jpg\"}";
+    private static final String PREMIUM_CONTENT_JSON =
+            "{\"url\":\"https://example.firebaseapp.com/content/premium.jpg\"}";
+    private static final String SUBSCRIPTION_STATUS_JSON = "{\"subscriptions\":[{"
+            + "\"willRenew\":true,"
+            + "\"purchaseToken\":\"onhhinbenecfbpohlgpkpica.AO-J1OyHDwGfi22SvG2VdeGdrR9nz0D3WY_"
+            + "YPda6qr7yssmdQ6oX2PKEiKfaN4B9LVx1LJSgkLVfuWbho2ReugyGThDgNy66a4EltFlLGVwZ4JK_"
+            + "CfTE5ypYz7E0SGuyO4wQNItR4hUP\","
+            + "\"isGracePeriod\":false,"
+            + "\"isEntitlementActive\":true,"
+            + "\"activeUntilMillisec\":1523347054184,"
+            + "\"isFreeTrial\":false,"
+            + "\"sku\":\"premium_subscription\","
+            + "\"isAccountHold\":false}]}";
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final MockWebServer server = new MockWebServer();
+    private final HttpCacheMetrics metrics = new HttpCacheMetrics();
+    private volatile String currentUserId = "alice";
+    private Cache cache;
+    private OkHttpClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        server.start();
+        cache = new Cache(temporaryFolder.newFolder(),
+                RetrofitClient.getCacheSizeBytes(SubscriptionStatusApiCall.class));
+        HttpCacheInterceptor cacheInterceptor = new HttpCacheInterceptor(metrics,
+                new HttpCacheInterceptor.UserIdProvider() {
+                    @NonNull
+                    @Override
+                    public String getCurrentUserId() {
+                        return currentUserId;
+                    }
+                },
+                SubscriptionStatusApiCall.BASIC_CONTENT,
+                SubscriptionStatusApiCall.PREMIUM_CONTENT);
+        // Same interceptor order as RetrofitClient, without the ID token interceptor.
+        client = new OkHttpClient.Builder()
+                .cache(cache)
+                .addInterceptor(cacheInterceptor)
+                .addNetworkInterceptor(cacheInterceptor.networkInterceptor())
+                .build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        cache.close();
+        server.shutdown();
+    }
+
+    @Test
+    public void notModifiedServesStoredBody() throws Exception {
+        server.enqueue(contentResponse(BASIC_CONTENT_JSON).setHeader("ETag", "\"v1\""));
+        server.enqueue(new MockResponse().setResponseCode(304).setHeader("ETag", "\"v1\""));
+
+        assertEquals(BASIC_CONTENT_JSON, get(SubscriptionStatusApiCall.BASIC_CONTENT));
+        assertEquals(BASIC_CONTENT_JSON, get(SubscriptionStatusApiCall.BASIC_CONTENT));
+
+        RecordedRequest firstRequest = server.takeRequest();
+        assertNull(firstRequest.getHeader("If-None-Match"));
+        RecordedRequest revalidation = server.takeRequest();
+        assertEquals("\"v1\"", revalidation.getHeader("If-None-Match"));
+        assertNull("The user header must not be sent",
+                revalidation.getHeader("X-Cache-User"));
+        assertEquals(2, metrics.getRequestCount());
+        assertEquals(1, metrics.getConditionalHitCount());
+        assertEquals(0, metrics.getCacheOnlyHitCount());
+        assertEquals(BASIC_CONTENT_JSON.length(), metrics.getBytesSaved());
+    }
+
+    @Test
+    public void notModifiedCountsCompressedBytesOfGzipResponse() throws Exception {
+        Buffer gzipped = gzip(SUBSCRIPTION_STATUS_JSON);
+        long gzippedLength = gzipped.size();
+        server.enqueue(contentResponse("")
+                .setHeader("ETag", "\"v1\"")
+                .setHeader("Content-Encoding", "gzip")
+                .setBody(gzipped));
+        server.enqueue(new MockResponse().setResponseCode(304).setHeader("ETag", "\"v1\""));
+
+        assertEquals(SUBSCRIPTION_STATUS_JSON, get(SubscriptionStatusApiCall.SUBSCRIPTION_STATUS));
+        assertEquals(SUBSCRIPTION_STATUS_JSON, get(SubscriptionStatusApiCall.SUBSCRIPTION_STATUS));
+
+        assertEquals(1, metrics.getConditionalHitCount());
+        assertEquals(gzippedLength, metrics.getBytesSaved());
+    }
+
+    @Test
+    public void changedResponseReplacesStoredBody() throws Exception {
+        server.enqueue(contentResponse(BASIC_CONTENT_JSON).setHeader("ETag", "\"v1\""));
+        server.enqueue(contentResponse(PREMIUM_CONTENT_JSON).setHeader("ETag", "\"v2\""));
+
+        assertEquals(BASIC_CONTENT_JSON, get(SubscriptionStatusApiCall.BASIC_CONTENT));
+        assertEquals(PREMIUM_CONTENT_JSON, get(SubscriptionStatusApiCall.BASIC_CONTENT));
+
+        assertEquals(0, metrics.getConditionalHitCount());
+        assertEquals(0, metrics.getBytesSaved());
+    }
+
+    @Test
+    public void offlineServesStoredContentToSameUser() throws Exception {
+        server.enqueue(contentResponse(BASIC_CONTENT_JSON));
+        assertEquals(BASIC_CONTENT_JSON, get(SubscriptionStatusApiCall.BASIC_CONTENT));
+
+        server.shutdown();
+
+        assertEquals(BASIC_CONTENT_JSON, get(SubscriptionStatusApiCall.BASIC_CONTENT));
+        assertEquals(1, metrics.getCacheOnlyHitCount());
+    }
+
+    @Test
+    public void offlineRefusesStoredContentOfAnotherUser() throws Exception {
+        server.enqueue(contentResponse(BASIC_CONTENT_JSON));
+        assertEquals(BASIC_CONTENT_JSON, get(SubscriptionStatusApiCall.BASIC_CONTENT));
+
+        currentUserId = "bob";
+        server.shutdown();
+
+        try {
+            get(SubscriptionStatusApiCall.BASIC_CONTENT);
+            fail("Another user's stored content must not be served");
+        } catch (IOException expected) {
+            // The network failure is passed on.
+        }
+        assertEquals(0, metrics.getCacheOnlyHitCount());
+    }
+
+    @Test
+    public void offlineRefusesStoredSubscriptionStatus() throws Exception {
+        server.enqueue(contentResponse(SUBSCRIPTION_STATUS_JSON));
+        assertEquals(SUBSCRIPTION_STATUS_JSON,
+                get(SubscriptionStatusApiCall.SUBSCRIPTION_STATUS));
+
+        server.shutdown();
+
+        try {
+            get(SubscriptionStatusApiCall.SUBSCRIPTION_STATUS);
+            fail("Subscription status must only be confirmed by the server");
+        } catch (IOException expected) {
+            // The network failure is passed on.
+        }
+    }
+
+    /**
+     * Measures the stored entries against the budget of RetrofitClient. Over HTTPS, each entry
+     * also stores the server certificate chain, which the budget leaves room for.
+     */
+    @Test
+    public void storedEntriesFitCacheBudget() throws Exception {
+        server.enqueue(contentResponse(BASIC_CONTENT_JSON));
+        server.enqueue(contentResponse(PREMIUM_CONTENT_JSON));
+        server.enqueue(contentResponse(SUBSCRIPTION_STATUS_JSON));
+
+        get(SubscriptionStatusApiCall.BASIC_CONTENT);
+        get(SubscriptionStatusApiCall.PREMIUM_CONTENT);
+        get(SubscriptionStatusApiCall.SUBSCRIPTION_STATUS);
+
+        int storedCount = 0;
+        Iterator<String> urls = cache.urls();
+        while (urls.hasNext()) {
+            urls.next();
+            storedCount++;
+        }
+        assertEquals("Every GET endpoint must be stored", 3, storedCount);
+        long bytesPerEntry = cache.size() / storedCount;
+        assertTrue("Entries use " + bytesPerEntry + " bytes",
+                bytesPerEntry < RetrofitClient.MAX_CACHE_ENTRY_BYTES / 4);
+        assertEquals(3 * RetrofitClient.MAX_CACHE_ENTRY_BYTES, cache.maxSize());
+    }
+
+    private String get(String path) throws IOException {
+        Request request = new Request.Builder().url(server.url("/" + path)).build();
+        try (Response response = client.newCall(request).execute()) {
+            return response.body().string();
+        }
+    }
+
+    private static Buffer gzip(String body) throws IOException {
+        Buffer gzipped = new Buffer();
+        BufferedSink sink = Okio.buffer(new GzipSink(gzipped));
+        sink.writeUtf8(body);
+        sink.close();
+        return gzipped;
+    }
+
+    /**
+     * A response with the headers that Cloud Functions sends, which are stored along with it.
+     */
+    private static MockResponse contentResponse(String body) {
+        return new MockResponse()
+                .setHeader("Content-Type", "application/json; charset=utf-8")
+                .setHeader("Date", "Mon, 18 Oct 2021 12:00:00 GMT")
+                .setHeader("Server", "Google Frontend")
+                .setHeader("Function-Execution-Id", "a1b2c3d4e5f6")
+                .setHeader("X-Cloud-Trace-Context", "0123456789abcdef0123456789abcdef;o=1")
+                .setHeader("Alt-Svc", "h3=\":443\"; ma=2592000,h3-29=\":443\"; ma=2592000")
+                .setBody(body);
+    }
+}
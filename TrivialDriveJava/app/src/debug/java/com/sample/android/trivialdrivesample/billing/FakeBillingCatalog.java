@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.trivialdrivesample.billing;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.billingclient.api.SkuDetails;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The products and initial purchases served by a {@link FakeBillingClient}.
+ * <p>
+ * A catalog file is a JSON object with two arrays. "skus" holds SkuDetails JSON in the form
+ * returned by Play, and the type of each SKU is read from its "type" field. "purchases" holds the
+ * purchases the user already owns, each with the SKU type, the purchase JSON and an optional
+ * signature:
+ * <pre>
+ * {
+ *   "skus": [
+ *     {"productId": "gas", "type": "inapp", "price": "$0.99", "price_amount_micros": 990000,
+ *      "price_currency_code": "USD", "title": "Gas", "description": "A quarter tank"}
+ *   ],
+ *   "purchases": [
+ *     {"type": "inapp", "signature": "...",
+ *      "purchase": {"productIds": ["premium"], "purchaseToken": "premium-token",
+ *                   "purchaseState": 0, "acknowledged": true}}
+ *   ]
+ * }
+ * </pre>
+ * SkuDetails are parsed once when the catalog is loaded, so catalogs with tens of thousands of
+ * SKUs can be queried repeatedly without parsing cost.
+ */
+public final class FakeBillingCatalog {
+    private final Map<String, Map<String, SkuDetails>> skuDetailsByType = new HashMap<>();
+    private final List<SeedPurchase> seedPurchases = new ArrayList<>();
+    private int skuCount;
+
+    /**
+     * A purchase the user owns when the fake billing client is created.
+     */
+    static final class SeedPurchase {
+        final String skuType;
+        final String purchaseJson;
+        final String signature;
+
+        SeedPurchase(String skuType, String purchaseJson, String signature) {
+            this.skuType = skuType;
+            this.purchaseJson = purchaseJson;
+            this.signature = signature;
+        }
+    }
+
+    private FakeBillingCatalog() {
+    }
+
+    /**
+     * Parses a catalog.
+     *
+     * @param json the catalog JSON
+     * @throws JSONException if the catalog or any SkuDetails in it can't be parsed
+     */
+    @NonNull
+    public static FakeBillingCatalog fromJson(@NonNull String json) throws JSONException {
+        FakeBillingCatalog catalog = new FakeBillingCatalog();
+        JSONObject root = new JSONObject(json);
+        JSONArray skus = root.optJSONArray("skus");
+        if (null != skus) {
+            for (int i = 0; i < skus.length(); i++) {
+                catalog.addSkuDetails(new SkuDetails(skus.getJSONObject(i).toString()));
+            }
+        }
+        JSONArray purchases = root.optJSONArray("purchases");
+        if (null != purchases) {
+            for (int i = 0; i < purchases.length(); i++) {
+                JSONObject purchase = purchases.getJSONObject(i);
+                catalog.seedPurchases.add(new SeedPurchase(purchase.getString("type"),
+                        purchase.getJSONObject("purchase").toString(),
+                        purchase.optString("signature")));
+            }
+        }
+        return catalog;
+    }
+
+    /**
+     * Reads and parses a catalog file, such as an asset or a file on the test machine.
+     *
+     * @param inputStream the UTF-8 encoded catalog; it is read fully but not closed
+     * @throws IOException   if the catalog can't be read
+     * @throws JSONException if the catalog can't be parsed
+     */
+    @NonNull
+    public static FakeBillingCatalog fromStream(@NonNull InputStream inputStream)
+            throws IOException, JSONException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return fromJson(new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private void addSkuDetails(SkuDetails skuDetails) {
+        Map<String, SkuDetails> skuDetailsForType = skuDetailsByType.get(skuDetails.getType());
+        if (null == skuDetailsForType) {
+            skuDetailsForType = new HashMap<>();
+            skuDetailsByType.put(skuDetails.getType(), skuDetailsForType);
+        }
+        if (null == skuDetailsForType.put(skuDetails.getSku(), skuDetails)) {
+            skuCount++;
+        }
+    }
+
+    /**
+     * @param skuType sku type, inapp or subscription
+     * @param sku     the sku to look up
+     * @return the details of the sku, or null if it isn't in the catalog
+     */
+    @Nullable
+    public SkuDetails getSkuDetails(@NonNull String skuType, @NonNull String sku) {
+        Map<String, SkuDetails> skuDetailsForType = skuDetailsByType.get(skuType);
+        return null == skuDetailsForType ? null : skuDetailsForType.get(sku);
+    }
+
+    /**
+     * @return the number of SKUs of all types in the catalog
+     */
+    public int getSkuCount() {
+        return skuCount;
+    }
+
+    @NonNull
+    List<SeedPurchase> getSeedPurchases() {
+        return Collections.unmodifiableList(seedPurchases);
+    }
+}
@@ -0,0 +1,471 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.trivialdrivesample.billing;
+
+import android.app.Activity;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.billingclient.api.AcknowledgePurchaseParams;
+import com.android.billingclient.api.AcknowledgePurchaseResponseListener;
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingClientStateListener;
+import com.android.billingclient.api.BillingFlowParams;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.ConsumeParams;
+import com.android.billingclient.api.ConsumeResponseListener;
+import com.android.billingclient.api.PriceChangeConfirmationListener;
+import com.android.billingclient.api.PriceChangeFlowParams;
+import com.android.billingclient.api.Purchase;
+import com.android.billingclient.api.PurchaseHistoryRecord;
+import com.android.billingclient.api.PurchaseHistoryResponseListener;
+import com.android.billingclient.api.PurchasesResponseListener;
+import com.android.billingclient.api.PurchasesUpdatedListener;
+import com.android.billingclient.api.SkuDetails;
+import com.android.billingclient.api.SkuDetailsParams;
+import com.android.billingclient.api.SkuDetailsResponseListener;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process billing engine that stands in for the Play Billing service. It serves SkuDetails
+ * and purchases from a {@link FakeBillingCatalog} and keeps track of purchases as they are made,
+ * acknowledged and consumed, reporting through the same listener contracts as the real client.
+ * <p>
+ * Every response is delivered on the callback executor after the configured latency, so callers
+ * see the same asynchronous behavior they would with Play; with no latency and a direct executor
+ * responses are delivered before the call returns. Errors can be injected per operation, either as
+ * a sequence of response codes for the next calls or at random with a given probability. The
+ * random source is seeded, so a run can be repeated exactly.
+ * <p>
+ * Activities can't start the Play purchase flow against this client. launchBillingFlow only reports
+ * its result; call {@link #simulatePurchase} to complete a purchase.
+ */
+public class FakeBillingClient extends BillingClient {
+    private static final String ERROR_MESSAGE = "Error response from FakeBillingClient";
+
+    /**
+     * Operations that errors can be injected into.
+     */
+    public enum Operation {
+        CONNECT,
+        QUERY_SKU_DETAILS,
+        QUERY_PURCHASES,
+        CONSUME,
+        ACKNOWLEDGE,
+        LAUNCH_BILLING_FLOW,
+        PURCHASE,
+    }
+
+    /**
+     * Signs the JSON of simulated purchases. Without a signer, simulated purchases have no
+     * signature and fail verification.
+     */
+    public interface PurchaseSigner {
+        @NonNull
+        String sign(@NonNull String purchaseJson);
+    }
+
+    private static final class OwnedPurchase {
+        final String skuType;
+        final JSONObject json;
+        final String signature;
+
+        OwnedPurchase(String skuType, JSONObject json, String signature) {
+            this.skuType = skuType;
+            this.json = json;
+            this.signature = signature;
+        }
+
+        Purchase toPurchase() throws JSONException {
+            return new Purchase(json.toString(), signature);
+        }
+    }
+
+    private final FakeBillingCatalog catalog;
+    private final PurchasesUpdatedListener purchasesUpdatedListener;
+    private final ScheduledExecutorService scheduler;
+    private final Executor callbackExecutor;
+    private final Random random;
+    // owned purchases by purchase token, in purchase order
+    private final Map<String, OwnedPurchase> ownedPurchases = new LinkedHashMap<>();
+    private final Map<Operation, Deque<Integer>> injectedResponseCodes =
+            new EnumMap<>(Operation.class);
+    private final Map<Operation, Integer> randomErrorCodes = new EnumMap<>(Operation.class);
+    private final Map<Operation, Double> randomErrorProbabilities = new EnumMap<>(Operation.class);
+    private final Map<Operation, AtomicLong> callCounts = new EnumMap<>(Operation.class);
+    private final AtomicLong purchaseCounter = new AtomicLong();
+    private volatile long latencyMillis;
+    private volatile int connectionState = ConnectionState.DISCONNECTED;
+    private volatile BillingClientStateListener billingClientStateListener;
+    private volatile PurchaseSigner purchaseSigner;
+
+    /**
+     * @param catalog                  products and initial purchases to serve
+     * @param purchasesUpdatedListener receives the results of simulated purchases
+     * @param scheduler                used to delay responses by the configured latency
+     * @param callbackExecutor         runs the listeners; use the main thread to match Play
+     * @param seed                     seed for randomly injected errors
+     */
+    public FakeBillingClient(@NonNull FakeBillingCatalog catalog,
+            @NonNull PurchasesUpdatedListener purchasesUpdatedListener,
+            @NonNull ScheduledExecutorService scheduler, @NonNull Executor callbackExecutor,
+            long seed) {
+        this.catalog = catalog;
+        this.purchasesUpdatedListener = purchasesUpdatedListener;
+        this.scheduler = scheduler;
+        this.callbackExecutor = callbackExecutor;
+        this.random = new Random(seed);
+        for (Operation operation : Operation.values()) {
+            callCounts.put(operation, new AtomicLong());
+        }
+        for (FakeBillingCatalog.SeedPurchase seedPurchase : catalog.getSeedPurchases()) {
+            try {
+                JSONObject json = new JSONObject(seedPurchase.purchaseJson);
+                ownedPurchases.put(json.getString("purchaseToken"),
+                        new OwnedPurchase(seedPurchase.skuType, json, seedPurchase.signature));
+            } catch (JSONException e) {
+                throw new IllegalArgumentException("Catalog purchase has no token", e);
+            }
+        }
+    }
+
+    /**
+     * Sets how long every response is delayed.
+     */
+    public void setLatency(long latency, @NonNull TimeUnit unit) {
+        latencyMillis = unit.toMillis(latency);
+    }
+
+    /**
+     * Makes the next calls of an operation fail with the given response codes, in order.
+     */
+    public void injectResponseCodes(@NonNull Operation operation, int... responseCodes) {
+        synchronized (injectedResponseCodes) {
+            Deque<Integer> queue = injectedResponseCodes.get(operation);
+            if (null == queue) {
+                queue = new ArrayDeque<>();
+                injectedResponseCodes.put(operation, queue);
+            }
+            for (int responseCode : responseCodes) {
+                queue.add(responseCode);
+            }
+        }
+    }
+
+    /**
+     * Makes calls of an operation fail at random with the given response code. A probability of
+     * zero turns random errors off.
+     */
+    public void setRandomError(@NonNull Operation operation, int responseCode,
+            double probability) {
+        synchronized (injectedResponseCodes) {
+            randomErrorCodes.put(operation, responseCode);
+            randomErrorProbabilities.put(operation, probability);
+        }
+    }
+
+    public void setPurchaseSigner(@Nullable PurchaseSigner purchaseSigner) {
+        this.purchaseSigner = purchaseSigner;
+    }
+
+    /**
+     * @return how many times the operation has been called, including calls that failed
+     */
+    public long getCallCount(@NonNull Operation operation) {
+        return callCounts.get(operation).get();
+    }
+
+    /**
+     * Drops the connection to the fake service, as if Play had been updated or killed. The state
+     * listener is told the service disconnected; it has to call startConnection to reconnect.
+     */
+    public void simulateServiceDisconnect() {
+        final BillingClientStateListener listener = billingClientStateListener;
+        if (connectionState != ConnectionState.CONNECTED || null == listener) {
+            return;
+        }
+        connectionState = ConnectionState.DISCONNECTED;
+        deliver(listener::onBillingServiceDisconnected);
+    }
+
+    /**
+     * Completes a purchase as if the user had finished the Play purchase flow. The purchase is
+     * reported to the PurchasesUpdatedListener, unacknowledged, unless an error is injected.
+     *
+     * @param skuType sku type, inapp or subscription
+     * @param skus    the skus bought together
+     * @return the purchase, or null if an error was reported instead
+     */
+    @Nullable
+    public Purchase simulatePurchase(@NonNull String skuType, @NonNull String... skus) {
+        final BillingResult result = result(nextResponseCode(Operation.PURCHASE));
+        if (result.getResponseCode() != BillingResponseCode.OK) {
+            deliver(() -> purchasesUpdatedListener.onPurchasesUpdated(result, null));
+            return null;
+        }
+        long purchaseNumber = purchaseCounter.incrementAndGet();
+        final Purchase purchase;
+        try {
+            JSONObject json = new JSONObject()
+                    .put("orderId", "GPA.FAKE-" + purchaseNumber)
+                    .put("productIds", new JSONArray(skus))
+                    .put("purchaseTime", System.currentTimeMillis())
+                    .put("purchaseState", 0)
+                    .put("purchaseToken", "fake-token-" + purchaseNumber)
+                    .put("quantity", 1)
+                    .put("acknowledged", false);
+            PurchaseSigner signer = purchaseSigner;
+            String signature = null == signer ? "" : signer.sign(json.toString());
+            OwnedPurchase ownedPurchase = new OwnedPurchase(skuType, json, signature);
+            synchronized (ownedPurchases) {
+                ownedPurchases.put(json.getString("purchaseToken"), ownedPurchase);
+                purchase = ownedPurchase.toPurchase();
+            }
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        deliver(() -> purchasesUpdatedListener.onPurchasesUpdated(result,
+                Collections.singletonList(purchase)));
+        return purchase;
+    }
+
+    @Override
+    public boolean isReady() {
+        return connectionState == ConnectionState.CONNECTED;
+    }
+
+    @Override
+    public int getConnectionState() {
+        return connectionState;
+    }
+
+    @Override
+    public void startConnection(@NonNull BillingClientStateListener listener) {
+        billingClientStateListener = listener;
+        if (isReady()) {
+            deliver(() -> listener.onBillingSetupFinished(result(BillingResponseCode.OK)));
+            return;
+        }
+        connectionState = ConnectionState.CONNECTING;
+        final int responseCode = nextResponseCode(Operation.CONNECT);
+        deliver(() -> {
+            connectionState = responseCode == BillingResponseCode.OK
+                    ? ConnectionState.CONNECTED : ConnectionState.DISCONNECTED;
+            listener.onBillingSetupFinished(result(responseCode));
+        });
+    }
+
+    @Override
+    public void endConnection() {
+        connectionState = ConnectionState.CLOSED;
+        billingClientStateListener = null;
+    }
+
+    @NonNull
+    @Override
+    public BillingResult isFeatureSupported(@NonNull String feature) {
+        return result(isReady() ? BillingResponseCode.OK
+                : BillingResponseCode.SERVICE_DISCONNECTED);
+    }
+
+    @NonNull
+    @Override
+    public BillingResult launchBillingFlow(@NonNull Activity activity,
+            @NonNull BillingFlowParams params) {
+        return result(nextResponseCode(Operation.LAUNCH_BILLING_FLOW));
+    }
+
+    @Override
+    public void launchPriceChangeConfirmationFlow(@NonNull Activity activity,
+            @NonNull PriceChangeFlowParams params,
+            @NonNull PriceChangeConfirmationListener listener) {
+        deliver(() -> listener.onPriceChangeConfirmationResult(
+                result(BillingResponseCode.FEATURE_NOT_SUPPORTED)));
+    }
+
+    @Override
+    public void querySkuDetailsAsync(@NonNull SkuDetailsParams params,
+            @NonNull SkuDetailsResponseListener listener) {
+        final int responseCode = nextResponseCode(Operation.QUERY_SKU_DETAILS);
+        if (responseCode != BillingResponseCode.OK) {
+            deliver(() -> listener.onSkuDetailsResponse(result(responseCode), null));
+            return;
+        }
+        final List<SkuDetails> skuDetailsList = new ArrayList<>();
+        for (String sku : params.getSkusList()) {
+            SkuDetails skuDetails = catalog.getSkuDetails(params.getSkuType(), sku);
+            if (null != skuDetails) {
+                skuDetailsList.add(skuDetails);
+            }
+        }
+        deliver(() -> listener.onSkuDetailsResponse(result(responseCode), skuDetailsList));
+    }
+
+    @Override
+    public void queryPurchasesAsync(@NonNull String skuType,
+            @NonNull PurchasesResponseListener listener) {
+        final int responseCode = nextResponseCode(Operation.QUERY_PURCHASES);
+        final List<Purchase> purchases = responseCode == BillingResponseCode.OK
+                ? getOwnedPurchases(skuType) : new ArrayList<>();
+        deliver(() -> listener.onQueryPurchasesResponse(result(responseCode), purchases));
+    }
+
+    @NonNull
+    @Override
+    @SuppressWarnings("deprecation")
+    public Purchase.PurchasesResult queryPurchases(@NonNull String skuType) {
+        int responseCode = nextResponseCode(Operation.QUERY_PURCHASES);
+        return new Purchase.PurchasesResult(result(responseCode),
+                responseCode == BillingResponseCode.OK ? getOwnedPurchases(skuType) : null);
+    }
+
+    @Override
+    public void queryPurchaseHistoryAsync(@NonNull String skuType,
+            @NonNull PurchaseHistoryResponseListener listener) {
+        final int responseCode = nextResponseCode(Operation.QUERY_PURCHASES);
+        if (responseCode != BillingResponseCode.OK) {
+            deliver(() -> listener.onPurchaseHistoryResponse(result(responseCode), null));
+            return;
+        }
+        final List<PurchaseHistoryRecord> records = new ArrayList<>();
+        try {
+            for (Purchase purchase : getOwnedPurchases(skuType)) {
+                records.add(new PurchaseHistoryRecord(purchase.getOriginalJson(),
+                        purchase.getSignature()));
+            }
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        deliver(() -> listener.onPurchaseHistoryResponse(result(responseCode), records));
+    }
+
+    @Override
+    public void consumeAsync(@NonNull ConsumeParams params,
+            @NonNull ConsumeResponseListener listener) {
+        final String purchaseToken = params.getPurchaseToken();
+        int responseCode = nextResponseCode(Operation.CONSUME);
+        if (responseCode == BillingResponseCode.OK) {
+            synchronized (ownedPurchases) {
+                OwnedPurchase ownedPurchase = ownedPurchases.get(purchaseToken);
+                if (null == ownedPurchase || !SkuType.INAPP.equals(ownedPurchase.skuType)) {
+                    responseCode = BillingResponseCode.ITEM_NOT_OWNED;
+                } else {
+                    ownedPurchases.remove(purchaseToken);
+                }
+            }
+        }
+        final BillingResult result = result(responseCode);
+        deliver(() -> listener.onConsumeResponse(result, purchaseToken));
+    }
+
+    @Override
+    public void acknowledgePurchase(@NonNull AcknowledgePurchaseParams params,
+            @NonNull AcknowledgePurchaseResponseListener listener) {
+        int responseCode = nextResponseCode(Operation.ACKNOWLEDGE);
+        if (responseCode == BillingResponseCode.OK) {
+            synchronized (ownedPurchases) {
+                OwnedPurchase ownedPurchase = ownedPurchases.get(params.getPurchaseToken());
+                if (null == ownedPurchase) {
+                    responseCode = BillingResponseCode.ITEM_NOT_OWNED;
+                } else {
+                    try {
+                        ownedPurchase.json.put("acknowledged", true);
+                    } catch (JSONException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }
+        }
+        final BillingResult result = result(responseCode);
+        deliver(() -> listener.onAcknowledgePurchaseResponse(result));
+    }
+
+    private List<Purchase> getOwnedPurchases(String skuType) {
+        List<Purchase> purchases = new ArrayList<>();
+        synchronized (ownedPurchases) {
+            try {
+                for (OwnedPurchase ownedPurchase : ownedPurchases.values()) {
+                    if (ownedPurchase.skuType.equals(skuType)) {
+                        purchases.add(ownedPurchase.toPurchase());
+                    }
+                }
+            } catch (JSONException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return purchases;
+    }
+
+    /**
+     * Counts the call and picks its response code: an injected code if one is queued, a random
+     * error if one is configured and drawn, SERVICE_DISCONNECTED if the client isn't connected, and
+     * OK otherwise.
+     */
+    private int nextResponseCode(Operation operation) {
+        callCounts.get(operation).incrementAndGet();
+        synchronized (injectedResponseCodes) {
+            Deque<Integer> queue = injectedResponseCodes.get(operation);
+            if (null != queue && !queue.isEmpty()) {
+                return queue.poll();
+            }
+            Double probability = randomErrorProbabilities.get(operation);
+            if (null != probability && random.nextDouble() < probability) {
+                return randomErrorCodes.get(operation);
+            }
+        }
+        if (operation != Operation.CONNECT && !isReady()) {
+            return BillingResponseCode.SERVICE_DISCONNECTED;
+        }
+        return BillingResponseCode.OK;
+    }
+
+    private static BillingResult result(int responseCode) {
+        return BillingResult.newBuilder()
+                .setResponseCode(responseCode)
+                .setDebugMessage(responseCode == BillingResponseCode.OK ? ""
+                        : ERROR_MESSAGE)
+                .build();
+    }
+
+    private void deliver(Runnable callback) {
+        long latency = latencyMillis;
+        if (latency == 0) {
+            callbackExecutor.execute(callback);
+        } else {
+            scheduler.schedule(() -> callbackExecutor.execute(callback), latency,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.trivialdrivesample;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.sample.android.trivialdrivesample.db.GasSource;
+
+/**
+ * The game logic behind the drive button. It reads a game state snapshot and uses the gas in one
+ * compare-and-set, without observers or database queries, so it can be called on any thread.
+ * <p>
+ * The subscription state is handed to the controller as it changes, so that snapshots can be
+ * taken without waiting on the billing service. It doesn't call into the Android framework, so
+ * the benchmark module measures this class as it ships.
+ */
+final class DriveController {
+    enum Result {
+        // the gas level or the subscription state isn't known yet
+        NOT_READY,
+        // a subscription gives infinite gas, so none was used
+        INFINITE_DRIVE,
+        DROVE,
+        // there was no gas, or the last unit was just used
+        OUT_OF_GAS,
+    }
+
+    private final GasSource gasSource;
+    private final int minLevel;
+    // null until the billing data source knows them
+    private volatile Boolean monthlySubscription;
+    private volatile Boolean yearlySubscription;
+
+    /**
+     * @param gasSource the gas tank
+     * @param minLevel  the level the gas can't go below
+     */
+    DriveController(@NonNull GasSource gasSource, int minLevel) {
+        this.gasSource = gasSource;
+        this.minLevel = minLevel;
+    }
+
+    void setMonthlySubscription(@Nullable Boolean subscribed) {
+        monthlySubscription = subscribed;
+    }
+
+    void setYearlySubscription(@Nullable Boolean subscribed) {
+        yearlySubscription = subscribed;
+    }
+
+    /**
+     * @return the game state, or null if the gas level or the subscription state isn't known yet
+     */
+    @Nullable
+    GameStateSnapshot getGameStateSnapshot() {
+        Boolean isMonthlySubscription = monthlySubscription;
+        Boolean isYearlySubscription = yearlySubscription;
+        Integer gasLevel = gasSource.peekGasLevel();
+        if (null == isMonthlySubscription || null == isYearlySubscription || null == gasLevel) {
+            return null;
+        }
+        return new GameStateSnapshot(gasLevel, isMonthlySubscription || isYearlySubscription);
+    }
+
+    /**
+     * Drive the car (if we can).
+     *
+     * @return what happened, for the message to show
+     */
+    @NonNull
+    Result drive() {
+        GameStateSnapshot gameState = getGameStateSnapshot();
+        if (null == gameState) {
+            return Result.NOT_READY;
+        }
+        if (gameState.hasInfiniteGas()) {
+            // We never use gas in the tank if we have a subscription
+            return Result.INFINITE_DRIVE;
+        }
+        Integer gasLevel = gasSource.useGas(minLevel);
+        if (null == gasLevel) {
+            return Result.NOT_READY;
+        }
+        // we either couldn't drive or just used the last of the gas
+        return gasLevel <= minLevel + 1 ? Result.OUT_OF_GAS : Result.DROVE;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.trivialdrivesample;
+
+/**
+ * The state of the game at one moment: the units of gas in the tank and whether a subscription
+ * gives the player infinite gas. Snapshots are immutable, so they can be passed between threads.
+ */
+public final class GameStateSnapshot {
+    private final int gasLevel;
+    private final boolean infiniteGas;
+
+    GameStateSnapshot(int gasLevel, boolean infiniteGas) {
+        this.gasLevel = gasLevel;
+        this.infiniteGas = infiniteGas;
+    }
+
+    /**
+     * @return the units of gas in the tank, whether or not the player has infinite gas
+     */
+    public int getGasLevel() {
+        return gasLevel;
+    }
+
+    /**
+     * @return true if a subscription gives the player infinite gas
+     */
+    public boolean hasInfiniteGas() {
+        return infiniteGas;
+    }
+}
@@ -27,10 +27,15 @@ import androidx.lifecycle.ViewModelProvider;
 public class GameViewModel extends ViewModel {
     static final String TAG = GameViewModel.class.getSimpleName();
     private final TrivialDriveRepository tdr;
+    // data binding calls canDrive() every time the layout is rebound, so it is built only once
+    private final LiveData<Boolean> canDrive;
 
     public GameViewModel(@NonNull TrivialDriveRepository trivialDriveRepository) {
         super();
         tdr = trivialDriveRepository;
+        canDrive = Transformations.distinctUntilChanged(
+                Transformations.map(tdr.gasTankLevel(), gasUnits ->
+                        gasUnits > 0 && null != tdr.getGameStateSnapshot()));
     }
 
     public void drive() {
@@ -38,11 +43,13 @@ public class GameViewModel extends ViewModel {
     }
 
     /*
-        We can drive if we have at least one unit of gas.
+        We can drive if we have at least one unit of gas. Until the game state is known, a tap
+        would have nothing to drive with, so the button stays disabled. The gas level is only
+        emitted once the gas in the tank and both subscriptions are known, which is all a game
+        state snapshot needs.
      */
     public LiveData<Boolean> canDrive() {
-        LiveData<Integer> gasUnitsRemaining = getGasUnitsRemaining();
-        return Transformations.map(gasUnitsRemaining, gasUnits -> gasUnits > 0);
+        return canDrive;
     }
 
     public LiveData<Boolean> isPremium() {
@@ -45,6 +45,9 @@ public class MakePurchaseViewModel extends ViewModel {
     }
 
     private final TrivialDriveRepository tdr;
+    // Built once per SKU, since the adapter asks for these every time it binds a row.
+    private final Map<String, SkuDetails> skuDetailsMap = new HashMap<>();
+    private final Map<String, LiveData<Boolean>> canBuySkuMap = new HashMap<>();
 
     public MakePurchaseViewModel(@NonNull TrivialDriveRepository trivialDriveRepository) {
         super();
@@ -52,11 +55,21 @@ public class MakePurchaseViewModel extends ViewModel {
     }
 
     public SkuDetails getSkuDetails(String sku) {
-        return new SkuDetails(sku, tdr);
+        SkuDetails skuDetails = skuDetailsMap.get(sku);
+        if (null == skuDetails) {
+            skuDetails = new SkuDetails(sku, tdr);
+            skuDetailsMap.put(sku, skuDetails);
+        }
+        return skuDetails;
     }
 
     public LiveData<Boolean> canBuySku(String sku) {
-        return tdr.canPurchase(sku);
+        LiveData<Boolean> canBuySku = canBuySkuMap.get(sku);
+        if (null == canBuySku) {
+            canBuySku = tdr.canPurchase(sku);
+            canBuySkuMap.put(sku, canBuySku);
+        }
+        return canBuySku;
     }
 
     public LiveData<Boolean> isPurchased(String sku) { return tdr.isPurchased(sku); }
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.trivialdrivesample;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Collects how long each phase of the app's startup took, measured from the start of the process.
+ * <p>
+ * Phases have a start and an end, like building an object; milestones are single points in time,
+ * like drawing the first frame. The app counts as interactive once every milestone it was created
+ * with has been reached, at which point the whole breakdown is logged. Phases and milestones can
+ * be recorded from any thread.
+ */
+class StartupTimings {
+    private static final String TAG = "TrivialDrive:" + StartupTimings.class.getSimpleName();
+
+    private final long processStartMillis;
+    private final Set<String> pendingMilestones;
+    private final List<String> breakdown = new ArrayList<>();
+
+    /**
+     * @param processStartMillis    elapsed realtime at which the process started
+     * @param interactiveMilestones the milestones that must be reached for the app to be
+     *                              interactive
+     */
+    StartupTimings(long processStartMillis, @NonNull String... interactiveMilestones) {
+        this.processStartMillis = processStartMillis;
+        pendingMilestones = new HashSet<>(Arrays.asList(interactiveMilestones));
+    }
+
+    /**
+     * Records a phase that started at the given time and ends now.
+     *
+     * @param phase       name of the phase
+     * @param startMillis elapsed realtime at which the phase started
+     */
+    synchronized void recordPhase(@NonNull String phase, long startMillis) {
+        long now = SystemClock.elapsedRealtime();
+        add(String.format(Locale.US, "%-24s at %5dms took %5dms", phase,
+                startMillis - processStartMillis, now - startMillis));
+    }
+
+    /**
+     * Records a milestone that was reached now.
+     *
+     * @param milestone name of the milestone
+     */
+    synchronized void recordMilestone(@NonNull String milestone) {
+        long now = SystemClock.elapsedRealtime();
+        add(String.format(Locale.US, "%-24s at %5dms", milestone, now - processStartMillis));
+        if (pendingMilestones.remove(milestone) && pendingMilestones.isEmpty()) {
+            StringBuilder sb = new StringBuilder("Interactive ")
+                    .append(now - processStartMillis).append("ms after process start:");
+            for (String line : breakdown) {
+                sb.append("\n  ").append(line);
+            }
+            Log.i(TAG, sb.toString());
+        }
+    }
+
+    private void add(String line) {
+        breakdown.add(line);
+        Log.d(TAG, line);
+    }
+}
@@ -17,29 +17,113 @@
 package com.sample.android.trivialdrivesample;
 
 import android.app.Application;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+
+import androidx.annotation.MainThread;
 
 import com.sample.android.trivialdrivesample.billing.BillingDataSource;
 import com.sample.android.trivialdrivesample.db.GameStateModel;
+import com.sample.android.trivialdrivesample.db.GasConsumptionJournal;
 
 public class TrivialDriveApplication extends Application {
-    public AppContainer appContainer;
+    // startup milestones
+    private static final String FIRST_FRAME = "first frame";
+    private static final String DATABASE_OPEN = "database open";
+    // a fallback for the process start time on releases without Process.getStartElapsedRealtime
+    private static final long CLASS_LOAD_MILLIS = SystemClock.elapsedRealtime();
+
+    private StartupTimings startupTimings;
+    private AppContainer appContainer;
+    private boolean firstFrameDrawn = false;
 
     // Container of objects shared across the whole app
     public class AppContainer {
-        final GameStateModel gameStateModel = new GameStateModel(TrivialDriveApplication.this);
-        final BillingDataSource billingDataSource = BillingDataSource.getInstance(
-                TrivialDriveApplication.this,
-                TrivialDriveRepository.INAPP_SKUS,
-                TrivialDriveRepository.SUBSCRIPTION_SKUS,
-                TrivialDriveRepository.AUTO_CONSUME_SKUS);
-        final public TrivialDriveRepository trivialDriveRepository = new TrivialDriveRepository(
-                billingDataSource,
-                gameStateModel);
+        final GameStateModel gameStateModel;
+        final GasConsumptionJournal consumptionJournal;
+        final BillingDataSource billingDataSource;
+        final public TrivialDriveRepository trivialDriveRepository;
+
+        AppContainer() {
+            long startMillis = SystemClock.elapsedRealtime();
+            gameStateModel = new GameStateModel(TrivialDriveApplication.this);
+            if (BuildConfig.STAGED_STARTUP) {
+                gameStateModel.open(() -> startupTimings.recordMilestone(DATABASE_OPEN));
+            }
+            consumptionJournal = new GasConsumptionJournal(
+                    gameStateModel,
+                    TrivialDriveRepository.SKU_GAS,
+                    TrivialDriveRepository.GAS_TANK_MAX);
+            startupTimings.recordPhase("game state model", startMillis);
+
+            startMillis = SystemClock.elapsedRealtime();
+            billingDataSource = BillingDataSource.getInstance(
+                    TrivialDriveApplication.this,
+                    TrivialDriveRepository.INAPP_SKUS,
+                    TrivialDriveRepository.SUBSCRIPTION_SKUS,
+                    TrivialDriveRepository.AUTO_CONSUME_SKUS,
+                    consumptionJournal,
+                    BillingDataSource.PLAY_BILLING_CLIENT_FACTORY,
+                    BuildConfig.STAGED_STARTUP);
+            startupTimings.recordPhase("billing data source", startMillis);
+
+            startMillis = SystemClock.elapsedRealtime();
+            trivialDriveRepository = new TrivialDriveRepository(
+                    billingDataSource,
+                    gameStateModel);
+            startupTimings.recordPhase("repository", startMillis);
+        }
     }
 
     @Override
     public void onCreate() {
+        long startMillis = SystemClock.elapsedRealtime();
         super.onCreate();
-        appContainer = new AppContainer();
+        long processStartMillis = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+                ? Process.getStartElapsedRealtime() : CLASS_LOAD_MILLIS;
+        // When staged, the app is interactive once the first frame is up and the game state can be
+        // read. Otherwise everything is ready by the time the first frame is drawn.
+        startupTimings = BuildConfig.STAGED_STARTUP
+                ? new StartupTimings(processStartMillis, FIRST_FRAME, DATABASE_OPEN)
+                : new StartupTimings(processStartMillis, FIRST_FRAME);
+        if (!BuildConfig.STAGED_STARTUP) {
+            getAppContainer();
+        }
+        startupTimings.recordPhase("application create", startMillis);
+    }
+
+    /**
+     * Returns the container, creating it on first use. With a staged startup this happens when
+     * the first activity asks for it rather than in onCreate, and the database is opened on a
+     * background thread while the activity inflates its views.
+     */
+    @MainThread
+    public AppContainer getAppContainer() {
+        if (null == appContainer) {
+            long startMillis = SystemClock.elapsedRealtime();
+            appContainer = new AppContainer();
+            startupTimings.recordPhase("app container", startMillis);
+        }
+        return appContainer;
+    }
+
+    /**
+     * Called by the activity once its first frame has been drawn. With a staged startup, this is
+     * when the billing client starts connecting to Google Play, so binding to the service doesn't
+     * compete with the first frame.
+     */
+    @MainThread
+    public void onFirstFrameDrawn() {
+        if (firstFrameDrawn) {
+            return;
+        }
+        firstFrameDrawn = true;
+        startupTimings.recordMilestone(FIRST_FRAME);
+        if (BuildConfig.STAGED_STARTUP) {
+            long startMillis = SystemClock.elapsedRealtime();
+            getAppContainer().billingDataSource.connect();
+            startupTimings.recordPhase("billing connect", startMillis);
+        }
     }
 }
@@ -18,14 +18,16 @@ package com.sample.android.trivialdrivesample;
 import android.app.Activity;
 import android.util.Log;
 
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.lifecycle.LifecycleObserver;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MediatorLiveData;
-import androidx.lifecycle.Observer;
 
 import com.sample.android.trivialdrivesample.billing.BillingDataSource;
 import com.sample.android.trivialdrivesample.db.GameStateModel;
-import com.sample.android.trivialdrivesample.ui.SingleMediatorLiveEvent;
+import com.sample.android.trivialdrivesample.ui.EventChannel;
 
 import java.util.List;
 import java.util.concurrent.ExecutorService;
@@ -53,96 +55,100 @@ public class TrivialDriveRepository {
     static final String[] SUBSCRIPTION_SKUS = new String[]{SKU_INFINITE_GAS_MONTHLY,
             SKU_INFINITE_GAS_YEARLY};
     static final String[] AUTO_CONSUME_SKUS = new String[]{SKU_GAS};
+    static final int MESSAGE_CAPACITY = 16;
 
     final BillingDataSource billingDataSource;
     final GameStateModel gameStateModel;
-    final SingleMediatorLiveEvent<Integer> gameMessages;
-    final SingleMediatorLiveEvent<Integer> allMessages = new SingleMediatorLiveEvent<>();
+    // messages waiting to be shown; old ones matter least if the user isn't looking
+    final EventChannel<Integer> allMessages =
+            new EventChannel<>(MESSAGE_CAPACITY, EventChannel.OverflowPolicy.DROP_OLDEST);
     final ExecutorService driveExecutor = Executors.newSingleThreadExecutor();
+    final DriveController driveController;
+    // Combined streams, built on first use and shared by every caller. Only accessed from the
+    // main thread.
+    private GasTankLevelLiveData combinedGasTankLevel;
+    private MediatorLiveData<Boolean> canPurchaseGas;
 
     public TrivialDriveRepository(BillingDataSource billingDataSource,
             GameStateModel gameStateModel) {
         this.billingDataSource = billingDataSource;
         this.gameStateModel = gameStateModel;
+        driveController = new DriveController(gameStateModel, GAS_TANK_MIN);
 
-        gameMessages = new SingleMediatorLiveEvent<>();
-        setupMessagesSingleMediatorLiveEvent();
+        setupMessagesEventChannel();
+        // The repository lives as long as the app, so these observers are never removed. They
+        // keep the subscription state current, so game state snapshots can be taken on any
+        // thread.
+        isPurchased(SKU_INFINITE_GAS_MONTHLY).observeForever(
+                driveController::setMonthlySubscription);
+        isPurchased(SKU_INFINITE_GAS_YEARLY).observeForever(
+                driveController::setYearlySubscription);
+        // Gas for consumed purchases is granted by the GasConsumptionJournal that the
+        // BillingDataSource was created with, so it is added exactly once even across crashes.
+    }
 
-        // Since both are tied to application lifecycle
-        billingDataSource.observeConsumedPurchases().observeForever(skuList -> {
-            for ( String sku: skuList ) {
-                if (sku.equals(SKU_GAS)) {
-                    gameStateModel.incrementGas(GAS_TANK_MAX);
+    /**
+     * Sets up the channel that we use to send messages up to the UI to be used in Snackbars. Game
+     * messages are sent to it directly, and new purchase events from the BillingDataSource are
+     * forwarded to it. Since the billing data source doesn't know about our SKUs, it also
+     * transforms the known SKU strings into useful String messages. A purchase of several SKUs
+     * gets a message for each of them.
+     */
+    void setupMessagesEventChannel() {
+        final LiveData<List<String>> billingMessages = billingDataSource.observeNewPurchases();
+        // The repository lives as long as the app, so this observer is never removed. Messages
+        // wait in allMessages until the UI is there to show them.
+        billingMessages.observeForever(stringList -> {
+            for (String s : stringList) {
+                switch (s) {
+                    case SKU_GAS:
+                        allMessages.send(R.string.message_more_gas_acquired);
+                        break;
+                    case SKU_PREMIUM:
+                        allMessages.send(R.string.message_premium);
+                        break;
+                    case SKU_INFINITE_GAS_MONTHLY:
+                    case SKU_INFINITE_GAS_YEARLY:
+                        // this makes sure that upgraded and downgraded subscriptions are
+                        // reflected correctly in the app UI
+                        billingDataSource.refreshPurchasesAsync();
+                        allMessages.send(R.string.message_subscribed);
+                        break;
                 }
             }
         });
     }
 
     /**
-     * Sets up the event that we can use to send messages up to the UI to be used in Snackbars. This
-     * SingleMediatorLiveEvent observes changes in SingleLiveEvents coming from the rest of the game
-     * and combines them into a single source with new purchase events from the BillingDataSource.
-     * Since the billing data source doesn't know about our SKUs, it also transforms the known SKU
-     * strings into useful String messages.
+     * Returns the current game state without waiting on the database or the billing service.
+     * This can be called on any thread.
+     *
+     * @return the game state, or null if the gas level or the subscription state isn't known yet
      */
-    void setupMessagesSingleMediatorLiveEvent() {
-        final LiveData<List<String>> billingMessages = billingDataSource.observeNewPurchases();
-        allMessages.addSource(gameMessages, allMessages::setValue);
-        allMessages.addSource(billingMessages,
-                stringList -> {
-            // TODO: Handle multi-line purchases better
-            for (String s: stringList) {
-                    switch (s) {
-                        case SKU_GAS:
-                            allMessages.setValue(R.string.message_more_gas_acquired);
-                            break;
-                        case SKU_PREMIUM:
-                            allMessages.setValue(R.string.message_premium);
-                            break;
-                        case SKU_INFINITE_GAS_MONTHLY:
-                        case SKU_INFINITE_GAS_YEARLY:
-                            // this makes sure that upgraded and downgraded subscriptions are
-                            // reflected correctly in the app UI
-                            billingDataSource.refreshPurchasesAsync();
-                            allMessages.setValue(R.string.message_subscribed);
-                            break;
-                    }
-                }
-        });
+    @Nullable
+    public GameStateSnapshot getGameStateSnapshot() {
+        return driveController.getGameStateSnapshot();
     }
 
     /**
-     * Drive the car (if we can). This is an asynchronous operation.
+     * Drive the car (if we can). The game state is read and the gas is used atomically, so this
+     * returns right away and can be called on any thread. The drive button stays disabled until
+     * the game state is known, since there is nothing to drive with before then.
      */
     public void drive() {
-        // We run this all on a background thread since we're not using a LiveData observable
-        // to get the gas level and want to avoid doing database queries on the main thread.
-        final LiveData<Integer> gasTankLevelLiveData = gasTankLevel();
-        gasTankLevelLiveData.observeForever(
-                new Observer<Integer>() {
-            @Override
-            public void onChanged(Integer gasLevel) {
-                if ( null == gasLevel ) return;
-                switch (gasLevel) {
-                    case TrivialDriveRepository.GAS_TANK_INFINITE:
-                        // We never use gas in the tank if we have a subscription
-                        sendMessage(R.string.message_infinite_drive);
-                        break;
-                    case TrivialDriveRepository.GAS_TANK_MIN:
-                        sendMessage(R.string.message_out_of_gas);
-                        break;
-                    case TrivialDriveRepository.GAS_TANK_MIN + 1:
-                        gameStateModel.decrementGas(GAS_TANK_MIN);
-                        sendMessage(R.string.message_out_of_gas);
-                        break;
-                    default:
-                        gameStateModel.decrementGas(GAS_TANK_MIN);
-                        sendMessage(R.string.message_you_drove);
-                        break;
-                }
-                gasTankLevelLiveData.removeObserver(this);
-            }
-        });
+        switch (driveController.drive()) {
+            case INFINITE_DRIVE:
+                sendMessage(R.string.message_infinite_drive);
+                break;
+            case OUT_OF_GAS:
+                sendMessage(R.string.message_out_of_gas);
+                break;
+            case DROVE:
+                sendMessage(R.string.message_you_drove);
+                break;
+            case NOT_READY:
+                break;
+        }
     }
 
     /**
@@ -188,7 +194,8 @@ public class TrivialDriveRepository {
         }
         Log.d(TAG, "GetPurchase: " + canPurchase.getValue() + " GasTankLevel: "
                 + gasTankLevel.getValue());
-        result.setValue(canPurchase.getValue() && (gasTankLevel.getValue() < GAS_TANK_MAX));
+        setValueIfChanged(result,
+                canPurchase.getValue() && (gasTankLevel.getValue() < GAS_TANK_MAX));
     }
 
     /**
@@ -199,67 +206,55 @@ public class TrivialDriveRepository {
      * @param sku the product ID to get and observe the value for
      * @return LiveData that returns true if the sku can be purchased
      */
+    @MainThread
     public LiveData<Boolean> canPurchase(String sku) {
         switch (sku) {
             case SKU_GAS: {
-                final MediatorLiveData<Boolean> result = new MediatorLiveData<>();
-                final LiveData<Integer> gasTankLevel = gasTankLevel();
-                final LiveData<Boolean> canPurchaseSku = billingDataSource.canPurchase(sku);
-                result.addSource(gasTankLevel, level ->
-                        combineGasAndCanPurchaseData(result, gasTankLevel, canPurchaseSku));
-                result.addSource(canPurchaseSku, canPurchase ->
-                        combineGasAndCanPurchaseData(result, gasTankLevel, canPurchaseSku));
-                return result;
+                if (null == canPurchaseGas) {
+                    final MediatorLiveData<Boolean> result = new MediatorLiveData<>();
+                    final LiveData<Integer> gasTankLevel = gasTankLevel();
+                    final LiveData<Boolean> canPurchaseSku = billingDataSource.canPurchase(sku);
+                    result.addSource(gasTankLevel, level ->
+                            combineGasAndCanPurchaseData(result, gasTankLevel, canPurchaseSku));
+                    result.addSource(canPurchaseSku, canPurchase ->
+                            combineGasAndCanPurchaseData(result, gasTankLevel, canPurchaseSku));
+                    canPurchaseGas = result;
+                }
+                return canPurchaseGas;
             }
             default:
                 return billingDataSource.canPurchase(sku);
         }
     }
 
-    private void combineGasAndSubscriptionData(
-            MediatorLiveData<Integer> result,
-            LiveData<Integer> gasTankLevel,
-            LiveData<Boolean> monthlySubscription,
-            LiveData<Boolean> yearlySubscription
-    ) {
-        Boolean isMonthlySubscription = monthlySubscription.getValue();
-        Boolean isYearlySubscription = yearlySubscription.getValue();
-        if (
-            null == isMonthlySubscription ||
-            null == isYearlySubscription
-        ) return; // do not emit
-
-        if (isMonthlySubscription || isYearlySubscription) {
-            result.setValue(GAS_TANK_INFINITE);
-        } else {
-            Integer gasTankLevelValue = gasTankLevel.getValue();
-            if (null == gasTankLevelValue) return;
-                result.setValue(gasTankLevelValue);
+    /**
+     * Sets the value of a combined stream only if it differs from the current one, so that a
+     * change to a source that doesn't change the result doesn't reach any observer.
+     */
+    private static <T> void setValueIfChanged(MediatorLiveData<T> result, @NonNull T value) {
+        if (!value.equals(result.getValue())) {
+            result.setValue(value);
         }
     }
 
     /**
      * Combine the results from our subscription LiveData with our gas tank level to get our real
      * gas tank level.
+     * <p>
+     * Every caller gets the same stream, so there is a single combiner however many views
+     * observe the gas level. Like any MediatorLiveData, it only observes its sources while it has
+     * active observers itself, and it only emits when the combined level changes.
      *
      * @return LiveData that represents the gasTankLevel by game logic.
      */
+    @MainThread
     public LiveData<Integer> gasTankLevel() {
-        final MediatorLiveData<Integer> result = new MediatorLiveData<>();
-        final LiveData<Integer> gasTankLevel = gameStateModel.gasTankLevel();
-        final LiveData<Boolean> monthlySubPurchased = isPurchased(SKU_INFINITE_GAS_MONTHLY);
-        final LiveData<Boolean> yearlySubPurchased = isPurchased(SKU_INFINITE_GAS_YEARLY);
-
-        result.addSource(gasTankLevel, level ->
-                combineGasAndSubscriptionData(result, gasTankLevel,
-                        monthlySubPurchased, yearlySubPurchased));
-        result.addSource(monthlySubPurchased, subPurchased ->
-                combineGasAndSubscriptionData(result, gasTankLevel,
-                        monthlySubPurchased, yearlySubPurchased));
-        result.addSource(yearlySubPurchased, subPurchased ->
-                combineGasAndSubscriptionData(result, gasTankLevel,
-                        monthlySubPurchased, yearlySubPurchased));
-        return result;
+        if (null == combinedGasTankLevel) {
+            combinedGasTankLevel = new GasTankLevelLiveData(gameStateModel.gasTankLevel(),
+                    isPurchased(SKU_INFINITE_GAS_MONTHLY), isPurchased(SKU_INFINITE_GAS_YEARLY),
+                    GAS_TANK_INFINITE);
+        }
+        return combinedGasTankLevel;
     }
 
     public final void refreshPurchases() {
@@ -270,6 +265,10 @@ public class TrivialDriveRepository {
         return billingDataSource;
     }
 
+    public final LifecycleObserver getGameStateLifecycleObserver() {
+        return gameStateModel;
+    }
+
     // There's lots of information in SkuDetails, but our app only needs a few things, since our
     // goods never go on sale, have introductory pricing, etc.
     public final LiveData<String> getSkuTitle(String sku) {
@@ -289,7 +288,7 @@ public class TrivialDriveRepository {
     }
 
     public final void sendMessage(int resId) {
-        gameMessages.postValue(resId);
+        allMessages.send(resId);
     }
 
     public final LiveData<Boolean> getBillingFlowInProcess() {
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.trivialdrivesample.billing;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.PurchasesUpdatedListener;
+
+/**
+ * Creates the BillingClient used by the BillingDataSource. The default factory builds a client
+ * connected to the Play Billing service; a factory can return a fake client instead so the data
+ * source can be exercised without Play.
+ */
+public interface BillingClientFactory {
+    /**
+     * Returns a client that has pending purchases enabled and reports purchase updates to the
+     * given listener.
+     */
+    @NonNull
+    BillingClient create(@NonNull Context context, @NonNull PurchasesUpdatedListener listener);
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.trivialdrivesample.billing;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingClientStateListener;
+import com.android.billingclient.api.BillingResult;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.Random;
+
+/**
+ * Keeps a BillingClient connected and holds back billing operations until it is ready.
+ * <p>
+ * If the connection fails or is lost, reconnection is retried with exponential backoff and full
+ * jitter: each delay is picked at random between zero and the current backoff ceiling, which
+ * doubles up to RECONNECT_TIMER_MAX_TIME_MILLISECONDS. This keeps many clients from retrying in
+ * lockstep after the Play Store restarts.
+ * <p>
+ * Operations passed to {@link #runWhenReady} while the client isn't ready are queued and run in
+ * order, on the main thread, as soon as the connection has been set up. Operations passed in
+ * while the queue is still being run join the end of it, so they can't overtake older ones.
+ * <p>
+ * The supervisor also tracks how long the client has been connected and how many times it had to
+ * reconnect.
+ */
+class BillingConnectionSupervisor implements BillingClientStateListener {
+    private static final String TAG =
+            "TrivialDrive:" + BillingConnectionSupervisor.class.getSimpleName();
+    private static final long RECONNECT_TIMER_START_MILLISECONDS = 1L * 1000L;
+    private static final long RECONNECT_TIMER_MAX_TIME_MILLISECONDS = 1000L * 60L * 15L; // 15 mins
+    private static final Handler handler = new Handler(Looper.getMainLooper());
+
+    interface ConnectionListener {
+        /**
+         * Called on every successful connection, before queued operations are run. Operations
+         * requested from here are queued behind them.
+         */
+        void onBillingConnected();
+    }
+
+    private final BillingClient billingClient;
+    private final ConnectionListener connectionListener;
+    private final Random random = new Random();
+    private final Queue<Runnable> pendingOperations = new ArrayDeque<>();
+    private boolean connectStarted = false;
+    private boolean ready = false;
+    // true while the queued operations are being run
+    private boolean draining = false;
+    // the ceiling of the next reconnection delay
+    private long reconnectMilliseconds = RECONNECT_TIMER_START_MILLISECONDS;
+    private int reconnectCount = 0;
+    // connection time of the sessions that have ended
+    private long previousUptimeMilliseconds = 0;
+    private long connectedSinceMilliseconds;
+
+    BillingConnectionSupervisor(@NonNull BillingClient billingClient,
+            @NonNull ConnectionListener connectionListener) {
+        this.billingClient = billingClient;
+        this.connectionListener = connectionListener;
+    }
+
+    /**
+     * Starts the first connection attempt. Later calls do nothing, since reconnection is handled
+     * by the supervisor itself.
+     */
+    void connect() {
+        synchronized (this) {
+            if (connectStarted) {
+                return;
+            }
+            connectStarted = true;
+        }
+        billingClient.startConnection(this);
+    }
+
+    synchronized boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Runs an operation that needs a connected billing client. If the client is ready and no
+     * queued operations are waiting, the operation is run right away on the calling thread;
+     * otherwise it is queued behind them.
+     *
+     * @param operation the billing operation to run
+     */
+    void runWhenReady(@NonNull Runnable operation) {
+        synchronized (this) {
+            if (!ready || draining) {
+                Log.d(TAG, "Billing client not ready, queueing operation.");
+                pendingOperations.add(operation);
+                return;
+            }
+        }
+        operation.run();
+    }
+
+    @Override
+    public void onBillingSetupFinished(@NonNull BillingResult billingResult) {
+        int responseCode = billingResult.getResponseCode();
+        Log.d(TAG, "onBillingSetupFinished: " + responseCode + " "
+                + billingResult.getDebugMessage());
+        if (responseCode != BillingClient.BillingResponseCode.OK) {
+            retryBillingServiceConnectionWithExponentialBackoff();
+            return;
+        }
+        // The billing client is ready. This doesn't mean that your app is set up correctly in
+        // the console -- it just means that you have a connection to the Billing service.
+        synchronized (this) {
+            reconnectMilliseconds = RECONNECT_TIMER_START_MILLISECONDS;
+            ready = true;
+            // operations requested from here on wait for the ones already queued
+            draining = true;
+            connectedSinceMilliseconds = SystemClock.elapsedRealtime();
+        }
+        connectionListener.onBillingConnected();
+        drainPendingOperations();
+    }
+
+    /**
+     * This is a pretty unusual occurrence. It happens primarily if the Google Play Store
+     * self-upgrades or is force closed.
+     */
+    @Override
+    public void onBillingServiceDisconnected() {
+        synchronized (this) {
+            if (ready) {
+                previousUptimeMilliseconds +=
+                        SystemClock.elapsedRealtime() - connectedSinceMilliseconds;
+            }
+            ready = false;
+        }
+        retryBillingServiceConnectionWithExponentialBackoff();
+    }
+
+    /**
+     * Runs the queued operations in the order they were queued, including any that are queued
+     * while this runs. An operation that finds the client disconnected again is queued again
+     * rather than run.
+     */
+    private void drainPendingOperations() {
+        while (true) {
+            Runnable operation;
+            synchronized (this) {
+                operation = ready ? pendingOperations.poll() : null;
+                if (null == operation) {
+                    draining = false;
+                    return;
+                }
+            }
+            operation.run();
+        }
+    }
+
+    /**
+     * Retries the billing service connection after a random delay between zero and the current
+     * backoff ceiling, then doubles the ceiling up to RECONNECT_TIMER_MAX_TIME_MILLISECONDS.
+     */
+    private void retryBillingServiceConnectionWithExponentialBackoff() {
+        long delay;
+        synchronized (this) {
+            delay = (long) (random.nextDouble() * reconnectMilliseconds);
+            reconnectMilliseconds = Math.min(reconnectMilliseconds * 2,
+                    RECONNECT_TIMER_MAX_TIME_MILLISECONDS);
+            reconnectCount++;
+        }
+        Log.d(TAG, "Reconnecting in " + delay + "ms");
+        handler.postDelayed(() -> billingClient.startConnection(this), delay);
+    }
+
+    /**
+     * @return the total time, in milliseconds, that the billing client has been connected
+     */
+    synchronized long getConnectionUptimeMillis() {
+        if (ready) {
+            return previousUptimeMilliseconds
+                    + SystemClock.elapsedRealtime() - connectedSinceMilliseconds;
+        }
+        return previousUptimeMilliseconds;
+    }
+
+    /**
+     * @return the number of reconnection attempts made after a failed or lost connection
+     */
+    synchronized int getReconnectCount() {
+        return reconnectCount;
+    }
+}
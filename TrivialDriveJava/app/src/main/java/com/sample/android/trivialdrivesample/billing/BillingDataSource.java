@@ -23,8 +23,11 @@ import android.os.Looper;
 import android.os.SystemClock;
 import android.util.Log;
 
+import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.arch.core.util.Function;
 import androidx.lifecycle.Lifecycle;
 import androidx.lifecycle.LifecycleObserver;
 import androidx.lifecycle.LiveData;
@@ -33,28 +36,30 @@ import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.OnLifecycleEvent;
 import androidx.lifecycle.Transformations;
 
-import com.android.billingclient.api.AcknowledgePurchaseParams;
 import com.android.billingclient.api.BillingClient;
-import com.android.billingclient.api.BillingClientStateListener;
 import com.android.billingclient.api.BillingFlowParams;
 import com.android.billingclient.api.BillingResult;
 import com.android.billingclient.api.ConsumeParams;
 import com.android.billingclient.api.Purchase;
+import com.android.billingclient.api.PurchasesResponseListener;
 import com.android.billingclient.api.PurchasesUpdatedListener;
 import com.android.billingclient.api.SkuDetails;
-import com.android.billingclient.api.SkuDetailsParams;
-import com.android.billingclient.api.SkuDetailsResponseListener;
 
-import com.sample.android.trivialdrivesample.ui.SingleMediatorLiveEvent;
+import com.sample.android.trivialdrivesample.BuildConfig;
+import com.sample.android.trivialdrivesample.ui.EventChannel;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * The BillingDataSource implements all billing functionality for our test application. Purchases
@@ -79,9 +84,9 @@ import java.util.Set;
  * purchases before attempting to acknowledge them. 2) It automatically acknowledges all known SKUs
  * for non-consumables, and doesn't set the state to purchased until the acknowledgement is
  * complete. 3) The data source will automatically consume skus that are set in
- * knownAutoConsumeSKUs. As SKUs are consumed, a SingleLiveEvent will be triggered for a single
- * observer. 4) If the BillingService is disconnected, it will attempt to reconnect with exponential
- * fallback.
+ * knownAutoConsumeSKUs. As SKUs are consumed, an event is sent on an EventChannel for a single
+ * observer. 4) If the BillingService is disconnected, it will attempt to reconnect with jittered
+ * exponential backoff, and calls made while disconnected are run once it has reconnected.
  * <p>
  * This data source attempts to keep billing library specific knowledge confined to this file; The
  * only thing that clients of the BillingDataSource need to know are the SKUs used by their
@@ -94,43 +99,83 @@ import java.util.Set;
  * refresh purchases during onResume.
  */
 public class BillingDataSource implements LifecycleObserver, PurchasesUpdatedListener,
-        BillingClientStateListener, SkuDetailsResponseListener {
+        SkuDetailsQueryPlanner.Listener, BillingConnectionSupervisor.ConnectionListener {
     private static final String TAG = "TrivialDrive:" + BillingDataSource.class.getSimpleName();
-    private static final long RECONNECT_TIMER_START_MILLISECONDS = 1L * 1000L;
-    private static final long RECONNECT_TIMER_MAX_TIME_MILLISECONDS = 1000L * 60L * 15L; // 15 mins
     private static final long SKU_DETAILS_REQUERY_TIME = 1000L * 60L * 60L * 4L; // 4 hours
+    private static final long METRICS_DUMP_INTERVAL = 1000L * 60L; // 1 minute
+    // how long granted purchases are kept in the consumption journal
+    private static final long GRANTED_CONSUMPTION_RETENTION = 1000L * 60L * 60L * 24L * 30L;
+    // purchase events waiting for an observer
+    private static final int PURCHASE_EVENT_CAPACITY = 32;
     private static final Handler handler = new Handler(Looper.getMainLooper());
     private static volatile BillingDataSource sInstance;
-    private boolean billingSetupComplete = false;
+    // purchase verification and state derivation run here, off the main thread
+    private static final ExecutorService billingExecutor = Executors.newSingleThreadExecutor();
+    // connects to the Play Billing service
+    public static final BillingClientFactory PLAY_BILLING_CLIENT_FACTORY =
+            (context, listener) -> BillingClient.newBuilder(context).setListener(listener)
+                    .enablePendingPurchases().build();
     // Billing client, connection, cached data
     private final BillingClient billingClient;
+    private final BillingMetrics billingMetrics = new BillingMetrics();
+    private final BillingConnectionSupervisor connectionSupervisor;
+    private final SkuDetailsCache skuDetailsCache;
+    private final SkuDetailsQueryPlanner skuDetailsQueryPlanner;
+    private final PurchasesQueryCoalescer purchasesQueryCoalescer;
+    private final AcknowledgementQueue acknowledgementQueue;
+    private final PurchaseListProcessor purchaseListProcessor;
+    private final PurchasesQueryCoalescer.TimedListener refreshInappPurchasesListener =
+            this::onRefreshInappPurchasesResponse;
+    private final PurchasesResponseListener refreshSubscriptionPurchasesListener =
+            this::onRefreshSubscriptionPurchasesResponse;
     // known SKUs (used to query sku data and validate responses)
     final private List<String> knownInappSKUs;
     final private List<String> knownSubscriptionSKUs;
     // SKUs to auto-consume
     final private Set<String> knownAutoConsumeSKUs;
+    // durable record of consumptions, so entitlements survive a process death; may be null
+    @Nullable
+    final private ConsumptionJournal consumptionJournal;
     // LiveData that is mostly maintained so it can be transformed into observables.
     final private Map<String, MutableLiveData<SkuState>> skuStateMap = new HashMap<>();
     final private Map<String, MutableLiveData<SkuDetails>> skuDetailsLiveDataMap = new HashMap<>();
+    // Derived LiveData, built once per SKU on first use and shared by every caller. Only
+    // accessed from the main thread.
+    final private Map<String, LiveData<Boolean>> isPurchasedLiveDataMap = new HashMap<>();
+    final private Map<String, LiveData<Boolean>> canPurchaseLiveDataMap = new HashMap<>();
+    final private Map<String, LiveData<String>> skuTitleLiveDataMap = new HashMap<>();
+    final private Map<String, LiveData<String>> skuPriceLiveDataMap = new HashMap<>();
+    final private Map<String, LiveData<String>> skuDescriptionLiveDataMap = new HashMap<>();
     // Observables that are used to communicate state.
-    final private Set<Purchase> purchaseConsumptionInProcess = new HashSet<>();
-    final private SingleMediatorLiveEvent<List<String>> newPurchase = new SingleMediatorLiveEvent<>();
-    final private SingleMediatorLiveEvent<List<String>> purchaseConsumed =
-            new SingleMediatorLiveEvent<>();
+    final private Set<Purchase> purchaseConsumptionInProcess =
+            Collections.synchronizedSet(new HashSet<>());
+    final private Map<String, Purchase> purchaseAcknowledgementInProcess =
+            new ConcurrentHashMap<>();
+    final private EventChannel<List<String>> newPurchase =
+            new EventChannel<>(PURCHASE_EVENT_CAPACITY, EventChannel.OverflowPolicy.DROP_OLDEST);
+    final private EventChannel<List<String>> purchaseConsumed =
+            new EventChannel<>(PURCHASE_EVENT_CAPACITY, EventChannel.OverflowPolicy.DROP_OLDEST);
     final private MutableLiveData<Boolean> billingFlowInProcess = new MutableLiveData<>();
-    // how long before the data source tries to reconnect to Google play
-    private long reconnectMilliseconds = RECONNECT_TIMER_START_MILLISECONDS;
     // when was the last successful SkuDetailsResponse?
     private long skuDetailsResponseTime = -SKU_DETAILS_REQUERY_TIME;
+    // SKU types whose chunked SkuDetails query hasn't finished yet, and whether any chunk failed
+    private int skuDetailsQueriesInFlight = 0;
+    private boolean skuDetailsQueryFailed = false;
     /**
      * Our constructor.  Since we are a singleton, this is only used internally.
      *
      * @param application           Android application class.
      * @param knownInappSKUs        SKUs of in-app purchases the source should know about
      * @param knownSubscriptionSKUs SKUs of subscriptions the source should know about
+     * @param consumptionJournal    journal used to grant consumed purchases exactly once
+     * @param billingClientFactory  creates the billing client the source talks to
+     * @param deferConnection       if true, the billing client isn't connected until
+     *                              {@link #connect()} is called
      */
     private BillingDataSource(@NonNull Application application, String[] knownInappSKUs,
-            String[] knownSubscriptionSKUs, String[] autoConsumeSKUs) {
+            String[] knownSubscriptionSKUs, String[] autoConsumeSKUs,
+            @Nullable ConsumptionJournal consumptionJournal,
+            @NonNull BillingClientFactory billingClientFactory, boolean deferConnection) {
         this.knownInappSKUs = knownInappSKUs == null ? new ArrayList<>() : Arrays.asList(
                 knownInappSKUs);
         this.knownSubscriptionSKUs =
@@ -140,10 +185,38 @@ public class BillingDataSource implements LifecycleObserver, PurchasesUpdatedLis
         if (autoConsumeSKUs != null) {
             knownAutoConsumeSKUs.addAll(Arrays.asList(autoConsumeSKUs));
         }
-        billingClient = BillingClient.newBuilder(application).setListener(
-                this).enablePendingPurchases().build();
-        billingClient.startConnection(this);
+        this.consumptionJournal = consumptionJournal;
+        billingClient = new InstrumentedBillingClient(
+                billingClientFactory.create(application, this), billingMetrics);
+        if (BuildConfig.DEBUG) {
+            billingMetrics.startPeriodicDump(METRICS_DUMP_INTERVAL);
+        }
+        skuDetailsCache = new SkuDetailsCache(application);
+        skuDetailsQueryPlanner = new SkuDetailsQueryPlanner(billingClient);
+        purchasesQueryCoalescer = new PurchasesQueryCoalescer(billingClient);
+        acknowledgementQueue = new AcknowledgementQueue(billingClient,
+                this::onPurchasesAcknowledged);
+        purchaseListProcessor = new PurchaseListProcessor(skuStateMap.keySet(),
+                knownAutoConsumeSKUs, new PurchaseListProcessor.Checks() {
+                    @Override
+                    public boolean isSignatureValid(@NonNull Purchase purchase) {
+                        return BillingDataSource.this.isSignatureValid(purchase);
+                    }
+
+                    @Override
+                    public boolean isAcknowledged(@NonNull String purchaseToken) {
+                        return acknowledgementQueue.isAcknowledged(purchaseToken);
+                    }
+                });
+        connectionSupervisor = new BillingConnectionSupervisor(billingClient, this);
+        if (!deferConnection) {
+            connectionSupervisor.connect();
+        }
         initializeLiveData();
+        billingExecutor.execute(this::loadCachedSkuDetails);
+        if (null != consumptionJournal) {
+            billingExecutor.execute(this::replayConsumptionJournal);
+        }
     }
 
     /*
@@ -154,6 +227,52 @@ public class BillingDataSource implements LifecycleObserver, PurchasesUpdatedLis
             String[] knownInappSKUs,
             String[] knownSubscriptionSKUs,
             String[] autoConsumeSKUs) {
+        return getInstance(application, knownInappSKUs, knownSubscriptionSKUs, autoConsumeSKUs,
+                null);
+    }
+
+    /*
+        As above, but consumed purchases are also recorded in the given journal, which is
+        responsible for granting them.
+     */
+    public static BillingDataSource getInstance(
+            @NonNull Application application,
+            String[] knownInappSKUs,
+            String[] knownSubscriptionSKUs,
+            String[] autoConsumeSKUs,
+            @Nullable ConsumptionJournal consumptionJournal) {
+        return getInstance(application, knownInappSKUs, knownSubscriptionSKUs, autoConsumeSKUs,
+                consumptionJournal, PLAY_BILLING_CLIENT_FACTORY);
+    }
+
+    /*
+        As above, but the billing client is created by the given factory, which lets the source
+        run against a fake billing client.
+     */
+    public static BillingDataSource getInstance(
+            @NonNull Application application,
+            String[] knownInappSKUs,
+            String[] knownSubscriptionSKUs,
+            String[] autoConsumeSKUs,
+            @Nullable ConsumptionJournal consumptionJournal,
+            @NonNull BillingClientFactory billingClientFactory) {
+        return getInstance(application, knownInappSKUs, knownSubscriptionSKUs, autoConsumeSKUs,
+                consumptionJournal, billingClientFactory, false);
+    }
+
+    /*
+        As above, but if deferConnection is true the billing client isn't connected until
+        connect() is called. Operations requested before then are queued, which lets the app
+        put off binding to the Play Billing service until its first frame has been drawn.
+     */
+    public static BillingDataSource getInstance(
+            @NonNull Application application,
+            String[] knownInappSKUs,
+            String[] knownSubscriptionSKUs,
+            String[] autoConsumeSKUs,
+            @Nullable ConsumptionJournal consumptionJournal,
+            @NonNull BillingClientFactory billingClientFactory,
+            boolean deferConnection) {
         if (sInstance == null) {
             synchronized (BillingDataSource.class) {
                 if (sInstance == null) {
@@ -161,54 +280,58 @@ public class BillingDataSource implements LifecycleObserver, PurchasesUpdatedLis
                             application,
                             knownInappSKUs,
                             knownSubscriptionSKUs,
-                            autoConsumeSKUs);
+                            autoConsumeSKUs,
+                            consumptionJournal,
+                            billingClientFactory,
+                            deferConnection);
                 }
             }
         }
         return sInstance;
     }
 
+    /**
+     * Called by the BillingConnectionSupervisor every time the billing client connects. You can
+     * query purchases here. Operations that were queued while disconnected run right after this.
+     */
     @Override
-    public void onBillingSetupFinished(BillingResult billingResult) {
-        int responseCode = billingResult.getResponseCode();
-        String debugMessage = billingResult.getDebugMessage();
-        Log.d(TAG, "onBillingSetupFinished: " + responseCode + " " + debugMessage);
-        switch (responseCode) {
-            case BillingClient.BillingResponseCode.OK:
-                // The billing client is ready. You can query purchases here.
-                // This doesn't mean that your app is set up correctly in the console -- it just
-                // means that you have a connection to the Billing service.
-                reconnectMilliseconds = RECONNECT_TIMER_START_MILLISECONDS;
-                billingSetupComplete = true;
-                querySkuDetailsAsync();
-                refreshPurchasesAsync();
-                break;
-            default:
-                retryBillingServiceConnectionWithExponentialBackoff();
-                break;
+    public void onBillingConnected() {
+        if (SystemClock.elapsedRealtime() - skuDetailsResponseTime
+                > SKU_DETAILS_REQUERY_TIME) {
+            querySkuDetailsAsync();
+        } else {
+            Log.v(TAG, "Cached SkuDetails are fresh, skipping query");
         }
+        refreshPurchasesAsync();
     }
 
     /**
-     * This is a pretty unusual occurrence. It happens primarily if the Google Play Store
-     * self-upgrades or is force closed.
+     * Connects the billing client if the source was created with a deferred connection. Calling
+     * this more than once, or on a source that connected on creation, does nothing.
      */
-    @Override
-    public void onBillingServiceDisconnected() {
-        billingSetupComplete = false;
-        retryBillingServiceConnectionWithExponentialBackoff();
+    public void connect() {
+        connectionSupervisor.connect();
     }
 
     /**
-     * Retries the billing service connection with exponential backoff, maxing out at the time
-     * specified by RECONNECT_TIMER_MAX_TIME_MILLISECONDS.
+     * @return the total time, in milliseconds, that the billing client has been connected.
      */
-    private void retryBillingServiceConnectionWithExponentialBackoff() {
-        handler.postDelayed(() ->
-                        billingClient.startConnection(BillingDataSource.this),
-                reconnectMilliseconds);
-        reconnectMilliseconds = Math.min(reconnectMilliseconds * 2,
-                RECONNECT_TIMER_MAX_TIME_MILLISECONDS);
+    public long getBillingConnectionUptimeMillis() {
+        return connectionSupervisor.getConnectionUptimeMillis();
+    }
+
+    /**
+     * @return how many times the billing client has tried to reconnect to Google Play.
+     */
+    public int getBillingReconnectCount() {
+        return connectionSupervisor.getReconnectCount();
+    }
+
+    /**
+     * @return latency histograms and response code counts of every billing client call.
+     */
+    public BillingMetrics getBillingMetrics() {
+        return billingMetrics;
     }
 
     /**
@@ -226,7 +349,10 @@ public class BillingDataSource implements LifecycleObserver, PurchasesUpdatedLis
                             > SKU_DETAILS_REQUERY_TIME) {
                         skuDetailsResponseTime = SystemClock.elapsedRealtime();
                         Log.v(TAG, "Skus not fresh, requerying");
-                        querySkuDetailsAsync();
+                        // A query made before the client connects would only fail and be
+                        // retried, so it waits for the connection like any other operation.
+                        connectionSupervisor.runWhenReady(
+                                BillingDataSource.this::querySkuDetailsAsync);
                     }
 
                 }
@@ -248,8 +374,78 @@ public class BillingDataSource implements LifecycleObserver, PurchasesUpdatedLis
     }
 
     /**
-     * This is a single live event that observes new purchases. These purchases can be the result of
-     * a billing flow or from another source.
+     * Reads the on-disk cache so prices and titles are available before Play has answered. If
+     * every known SKU was cached and the oldest response is younger than SKU_DETAILS_REQUERY_TIME,
+     * the cached response time is carried over so that we don't requery; otherwise the details are
+     * revalidated as soon as the billing client is ready. The cache is read on the billing executor
+     * and the results are published on the main thread.
+     */
+    @WorkerThread
+    private void loadCachedSkuDetails() {
+        final Map<String, SkuDetails> cachedSkuDetails = new HashMap<>();
+        boolean complete = loadCachedSkuDetails(BillingClient.SkuType.INAPP, knownInappSKUs,
+                cachedSkuDetails);
+        complete &= loadCachedSkuDetails(BillingClient.SkuType.SUBS, knownSubscriptionSKUs,
+                cachedSkuDetails);
+        long cachedAge = -1;
+        if (complete) {
+            long oldestResponseTime = Long.MAX_VALUE;
+            if (!knownInappSKUs.isEmpty()) {
+                oldestResponseTime = Math.min(oldestResponseTime,
+                        skuDetailsCache.getResponseTime(BillingClient.SkuType.INAPP));
+            }
+            if (!knownSubscriptionSKUs.isEmpty()) {
+                oldestResponseTime = Math.min(oldestResponseTime,
+                        skuDetailsCache.getResponseTime(BillingClient.SkuType.SUBS));
+            }
+            cachedAge = System.currentTimeMillis() - oldestResponseTime;
+        }
+        final long age = cachedAge;
+        handler.post(() -> publishCachedSkuDetails(cachedSkuDetails, age));
+    }
+
+    /**
+     * Called by loadCachedSkuDetails to read the cached details for one SKU type.
+     *
+     * @param cachedSkuDetails map the cached details are added to
+     * @return true if every SKU in skuList had cached details
+     */
+    @WorkerThread
+    private boolean loadCachedSkuDetails(String skuType, List<String> skuList,
+            Map<String, SkuDetails> cachedSkuDetails) {
+        Map<String, SkuDetails> skuTypeDetails = skuDetailsCache.load(skuType, skuList);
+        cachedSkuDetails.putAll(skuTypeDetails);
+        return skuTypeDetails.size() == skuList.size();
+    }
+
+    /**
+     * Sets the cached details of every SKU that Play hasn't already answered for. Details from
+     * Play are posted to the main thread as well, so any that arrived before the cache was read
+     * are already set and must not be replaced by older cached values.
+     *
+     * @param age age of the cached details in milliseconds, or -1 if some SKUs weren't cached
+     */
+    @MainThread
+    private void publishCachedSkuDetails(@NonNull Map<String, SkuDetails> cachedSkuDetails,
+            long age) {
+        for (Map.Entry<String, SkuDetails> entry : cachedSkuDetails.entrySet()) {
+            MutableLiveData<SkuDetails> detailsMutableLiveData =
+                    skuDetailsLiveDataMap.get(entry.getKey());
+            if (null != detailsMutableLiveData && null == detailsMutableLiveData.getValue()) {
+                detailsMutableLiveData.setValue(entry.getValue());
+            }
+        }
+        if (age >= 0 && age < SKU_DETAILS_REQUERY_TIME) {
+            // a query that started or finished in the meantime has set a later time
+            skuDetailsResponseTime = Math.max(skuDetailsResponseTime,
+                    SystemClock.elapsedRealtime() - age);
+        }
+    }
+
+    /**
+     * This is an event channel that observes new purchases. These purchases can be the result of
+     * a billing flow or from another source. Every purchase is delivered, even if several arrive
+     * at once.
      *
      * @return LiveData that contains the sku of the new purchase.
      */
@@ -258,7 +454,7 @@ public class BillingDataSource implements LifecycleObserver, PurchasesUpdatedLis
     }
 
     /**
-     * This is a single live event that observes consumed purchases from calling the consume
+     * This is an event channel that observes consumed purchases from calling the consume
      * method.
      *
      * @return LiveData that contains the sku of the consumed purchase.
@@ -274,11 +470,17 @@ public class BillingDataSource implements LifecycleObserver, PurchasesUpdatedLis
      *
      * @return a LiveData that observes the SKUs purchase state
      */
+    @MainThread
     public LiveData<Boolean> isPurchased(String sku) {
-        final LiveData<SkuState> skuStateLiveData = skuStateMap.get(sku);
-        assert skuStateLiveData != null;
-        return Transformations.map(skuStateLiveData, skuState ->
-                skuState == SkuState.SKU_STATE_PURCHASED_AND_ACKNOWLEDGED);
+        LiveData<Boolean> isPurchased = isPurchasedLiveDataMap.get(sku);
+        if (null == isPurchased) {
+            final LiveData<SkuState> skuStateLiveData = skuStateMap.get(sku);
+            assert skuStateLiveData != null;
+            isPurchased = Transformations.map(skuStateLiveData, skuState ->
+                    skuState == SkuState.SKU_STATE_PURCHASED_AND_ACKNOWLEDGED);
+            isPurchasedLiveDataMap.put(sku, isPurchased);
+        }
+        return isPurchased;
     }
 
     private void canPurchaseFromSkuDetailsAndPurchaseLiveData
@@ -304,7 +506,17 @@ public class BillingDataSource implements LifecycleObserver, PurchasesUpdatedLis
      *
      * @return a LiveData that observes the SKUs purchase state
      */
+    @MainThread
     public LiveData<Boolean> canPurchase(String sku) {
+        LiveData<Boolean> canPurchase = canPurchaseLiveDataMap.get(sku);
+        if (null == canPurchase) {
+            canPurchase = createCanPurchaseLiveData(sku);
+            canPurchaseLiveDataMap.put(sku, canPurchase);
+        }
+        return canPurchase;
+    }
+
+    private LiveData<Boolean> createCanPurchaseLiveData(String sku) {
         final MediatorLiveData<Boolean> result = new MediatorLiveData<>();
         final LiveData<SkuDetails> skuDetailsLiveData = skuDetailsLiveDataMap.get(sku);
         final LiveData<SkuState> skuStateLiveData = skuStateMap.get(sku);
@@ -327,32 +539,51 @@ public class BillingDataSource implements LifecycleObserver, PurchasesUpdatedLis
      * @param sku to get the title from
      * @return title of the requested SKU as an observable LiveData<String>
      */
+    @MainThread
     public final LiveData<String> getSkuTitle(String sku) {
-        LiveData<SkuDetails> skuDetailsLiveData = skuDetailsLiveDataMap.get(sku);
-        assert skuDetailsLiveData != null;
-        return Transformations.map(skuDetailsLiveData, SkuDetails::getTitle);
+        return getSkuDetailsField(skuTitleLiveDataMap, sku, SkuDetails::getTitle);
     }
 
     // There's lots of information in SkuDetails, but our app only needs a few things, since our
     // goods never go on sale, have introductory pricing, etc.
 
+    @MainThread
     public final LiveData<String> getSkuPrice(String sku) {
-        LiveData<SkuDetails> skuDetailsLiveData = skuDetailsLiveDataMap.get(sku);
-        assert skuDetailsLiveData != null;
-        return Transformations.map(skuDetailsLiveData, SkuDetails::getPrice);
+        return getSkuDetailsField(skuPriceLiveDataMap, sku, SkuDetails::getPrice);
     }
 
+    @MainThread
     public final LiveData<String> getSkuDescription(String sku) {
-        LiveData<SkuDetails> skuDetailsLiveData = skuDetailsLiveDataMap.get(sku);
-        assert skuDetailsLiveData != null;
-        return Transformations.map(skuDetailsLiveData, SkuDetails::getDescription);
+        return getSkuDetailsField(skuDescriptionLiveDataMap, sku, SkuDetails::getDescription);
+    }
+
+    /**
+     * Returns the shared LiveData that maps the SkuDetails of a SKU to one of its fields,
+     * creating it the first time it is requested.
+     *
+     * @param liveDataMap the map holding the LiveData already created for this field
+     * @param sku         the SKU to get the field for
+     * @param field       reads the field from SkuDetails
+     */
+    private LiveData<String> getSkuDetailsField(Map<String, LiveData<String>> liveDataMap,
+            String sku, Function<SkuDetails, String> field) {
+        LiveData<String> fieldLiveData = liveDataMap.get(sku);
+        if (null == fieldLiveData) {
+            LiveData<SkuDetails> skuDetailsLiveData = skuDetailsLiveDataMap.get(sku);
+            assert skuDetailsLiveData != null;
+            fieldLiveData = Transformations.map(skuDetailsLiveData, field);
+            liveDataMap.put(sku, fieldLiveData);
+        }
+        return fieldLiveData;
     }
     
     /**
-     * Receives the result from {@link #querySkuDetailsAsync()}}.
+     * Receives the result of each chunk of {@link #querySkuDetailsAsync()}}.
      * <p>
      * Store the SkuDetails and post them in the {@link #skuDetailsLiveDataMap}. This allows other
      * parts of the app to use the {@link SkuDetails} to show SKU information and make purchases.
+     * The details are also written to the {@link SkuDetailsCache} for the next cold start. A chunk
+     * that failed leaves the details of its SKUs as they were.
      */
     @Override
     public void onSkuDetailsResponse(@NonNull BillingResult billingResult,
@@ -378,6 +609,7 @@ public class BillingDataSource implements LifecycleObserver, PurchasesUpdatedLis
                             Log.e(TAG, "Unknown sku: " + sku);
                         }
                     }
+                    skuDetailsCache.store(skuDetailsList, System.currentTimeMillis());
                 }
                 break;
             case BillingClient.BillingResponseCode.SERVICE_DISCONNECTED:
@@ -398,58 +630,96 @@ public class BillingDataSource implements LifecycleObserver, PurchasesUpdatedLis
             default:
                 Log.wtf(TAG, "onSkuDetailsResponse: " + responseCode + " " + debugMessage);
         }
-        if (responseCode == BillingClient.BillingResponseCode.OK) {
-            skuDetailsResponseTime = SystemClock.elapsedRealtime();
-        } else {
+    }
+
+    /**
+     * Called once the chunked query for a SKU type has finished. When the queries for every type
+     * have finished, the details count as fresh only if no chunk failed; otherwise they are
+     * requeried the next time they are needed.
+     */
+    @Override
+    public void onSkuDetailsQueryFinished(@NonNull String skuType,
+            @NonNull List<String> failedSkus) {
+        if (!failedSkus.isEmpty()) {
+            Log.e(TAG, "Could not query SkuDetails for " + failedSkus.size() + " " + skuType
+                    + " SKUs");
+            skuDetailsQueryFailed = true;
+        }
+        if (--skuDetailsQueriesInFlight > 0) {
+            return;
+        }
+        if (skuDetailsQueryFailed) {
             skuDetailsResponseTime = -SKU_DETAILS_REQUERY_TIME;
+        } else {
+            skuDetailsResponseTime = SystemClock.elapsedRealtime();
         }
     }
 
     /**
      * Calls the billing client functions to query sku details for both the inapp and subscription
      * SKUs. SKU details are useful for displaying item names and price lists to the user, and are
-     * required to make a purchase.
+     * required to make a purchase. Large SKU lists are queried in chunks by the
+     * {@link SkuDetailsQueryPlanner}, and a query that is still running isn't started again.
      */
     private void querySkuDetailsAsync() {
-        if (null != knownInappSKUs && !knownInappSKUs.isEmpty()) {
-            billingClient.querySkuDetailsAsync(SkuDetailsParams.newBuilder()
-                    .setType(BillingClient.SkuType.INAPP)
-                    .setSkusList(knownInappSKUs)
-                    .build(), this);
-        }
-        if (null != knownSubscriptionSKUs && !knownSubscriptionSKUs.isEmpty()) {
-            billingClient.querySkuDetailsAsync(SkuDetailsParams.newBuilder()
-                    .setType(BillingClient.SkuType.SUBS)
-                    .setSkusList(knownSubscriptionSKUs)
-                    .build(), this);
+        if (skuDetailsQueriesInFlight > 0) {
+            Log.v(TAG, "SkuDetails query already in flight");
+            return;
         }
+        skuDetailsQueryFailed = false;
+        skuDetailsQueriesInFlight = 2;
+        skuDetailsQueryPlanner.query(BillingClient.SkuType.INAPP, knownInappSKUs, this);
+        skuDetailsQueryPlanner.query(BillingClient.SkuType.SUBS, knownSubscriptionSKUs, this);
     }
 
     /*
         GPBL v4 now queries purchases asynchronously. This only gets active
-        purchases.
+        purchases. Refreshes that overlap a refresh already in flight share its result, so the
+        listeners are kept in fields to make sure each result is only processed once.
      */
     public void refreshPurchasesAsync() {
-        billingClient.queryPurchasesAsync(BillingClient.SkuType.INAPP,
-                (billingResult, list) -> {
-                    if (billingResult.getResponseCode() != BillingClient.BillingResponseCode.OK) {
-                        Log.e(TAG, "Problem getting purchases: " +
-                                billingResult.getDebugMessage());
-                    } else {
-                        processPurchaseList(list, knownInappSKUs);
-                    }
-                });
-        billingClient.queryPurchasesAsync(BillingClient.SkuType.SUBS,
-                (billingResult, list) -> {
-                    if (billingResult.getResponseCode() != BillingClient.BillingResponseCode.OK) {
-                        Log.e(TAG, "Problem getting subscriptions: " +
-                                billingResult.getDebugMessage());
-                    } else {
-                        processPurchaseList(list, knownSubscriptionSKUs);
-                    }
+        connectionSupervisor.runWhenReady(() -> {
+            purchasesQueryCoalescer.queryPurchasesAsync(BillingClient.SkuType.INAPP,
+                    refreshInappPurchasesListener);
+            purchasesQueryCoalescer.queryPurchasesAsync(BillingClient.SkuType.SUBS,
+                    refreshSubscriptionPurchasesListener);
+            Log.d(TAG, "Refreshing purchases started.");
+        });
+    }
 
-                });
-        Log.d(TAG, "Refreshing purchases started.");
+    private void onRefreshInappPurchasesResponse(@NonNull BillingResult billingResult,
+            @NonNull List<Purchase> list, long issuedAtMillis) {
+        if (billingResult.getResponseCode() != BillingClient.BillingResponseCode.OK) {
+            Log.e(TAG, "Problem getting purchases: " + billingResult.getDebugMessage());
+        } else {
+            billingExecutor.execute(() -> {
+                reconcilePendingConsumptions(list, issuedAtMillis);
+                processPurchaseList(list, knownInappSKUs);
+            });
+        }
+    }
+
+    private void onRefreshSubscriptionPurchasesResponse(@NonNull BillingResult billingResult,
+            @NonNull List<Purchase> list) {
+        if (billingResult.getResponseCode() != BillingClient.BillingResponseCode.OK) {
+            Log.e(TAG, "Problem getting subscriptions: " + billingResult.getDebugMessage());
+        } else {
+            processPurchaseListAsync(list, knownSubscriptionSKUs);
+        }
+    }
+
+    /**
+     * @return how many purchase queries have been sent to Play.
+     */
+    public long getIssuedPurchasesQueryCount() {
+        return purchasesQueryCoalescer.getIssuedQueryCount();
+    }
+
+    /**
+     * @return how many purchase queries shared a follow-up query with an earlier request.
+     */
+    public long getMergedPurchasesQueryCount() {
+        return purchasesQueryCoalescer.getMergedQueryCount();
     }
 
     /**
@@ -464,48 +734,35 @@ public class BillingDataSource implements LifecycleObserver, PurchasesUpdatedLis
     private List<Purchase> getPurchases(String[] skus, String skuType) {
         Purchase.PurchasesResult pr = billingClient.queryPurchases(skuType);
         BillingResult br = pr.getBillingResult();
-        List<Purchase> returnPurchasesList = new LinkedList<>();
         if (br.getResponseCode() != BillingClient.BillingResponseCode.OK) {
             Log.e(TAG, "Problem getting purchases: " + br.getDebugMessage());
-        } else {
-            List<Purchase> purchasesList = pr.getPurchasesList();
-            if (null != purchasesList) {
-                for (Purchase purchase : purchasesList) {
-                    for (String sku : skus) {
-                        for (String purchaseSku : purchase.getSkus()) {
-                            if (purchaseSku.equals(sku)) {
-                                if ( !returnPurchasesList.contains(purchase) ) {
-                                    returnPurchasesList.add(purchase);
-                                }
-                            }
-                        }
-                    }
-                }
-            }
+            return new ArrayList<>();
         }
-        return returnPurchasesList;
+        return new PurchaseIndex(pr.getPurchasesList()).getPurchases(skus);
     }
 
     /**
-     * Consumes an in-app purchase. Interested listeners can watch the purchaseConsumed LiveEvent.
+     * Consumes an in-app purchase. Interested listeners can watch the purchaseConsumed EventChannel.
      * To make things easy, you can send in a list of SKUs that are auto-consumed by the
-     * BillingDataSource.
+     * BillingDataSource. If the billing client isn't connected, this waits until it is.
      */
     public void consumeInappPurchase(@NonNull String sku) {
-        billingClient.queryPurchasesAsync(BillingClient.SkuType.INAPP,
+        connectionSupervisor.runWhenReady(() -> consumeInappPurchaseWhenReady(sku));
+    }
+
+    private void consumeInappPurchaseWhenReady(@NonNull String sku) {
+        purchasesQueryCoalescer.queryPurchasesAsync(BillingClient.SkuType.INAPP,
                 (billingResult, list) -> {
                     assert list != null;
                     if (billingResult.getResponseCode() != BillingClient.BillingResponseCode.OK) {
                         Log.e(TAG, "Problem getting purchases: " +
                                 billingResult.getDebugMessage());
                     } else {
-                        for (Purchase purchase : list) {
-                            // for right now any bundle of SKUs must all be consumable
-                            for ( String purchaseSku : purchase.getSkus() )
-                                if (purchaseSku.equals(sku)) {
-                                    consumePurchase(purchase);
-                                    return;
-                                }
+                        // for right now any bundle of SKUs must all be consumable
+                        List<Purchase> skuPurchases = new PurchaseIndex(list).getPurchases(sku);
+                        if (!skuPurchases.isEmpty()) {
+                            consumePurchase(skuPurchases.get(0));
+                            return;
                         }
                     }
                     Log.e(TAG, "Unable to consume SKU: " + sku + " Sku not found.");
@@ -513,56 +770,56 @@ public class BillingDataSource implements LifecycleObserver, PurchasesUpdatedLis
     }
 
     /**
-     * Calling this means that we have the most up-to-date information for a Sku in a purchase
-     * object. This uses the purchase state (Pending, Unspecified, Purchased) along with the
-     * acknowledged state.
+     * Since we (mostly) are getting sku states when we actually make a purchase or update
+     * purchases, we keep some internal state when we do things like acknowledge or consume.
      *
-     * @param purchase an up-to-date object to set the state for the Sku
+     * @param skus        skus to change the state
+     * @param newSkuState the new state of the skus.
      */
-    private void setSkuStateFromPurchase(@NonNull Purchase purchase) {
-        for (String purchaseSku:purchase.getSkus()) {
-            MutableLiveData<SkuState> skuStateLiveData = skuStateMap.get(purchaseSku);
-            if (null == skuStateLiveData) {
-                Log.e(TAG, "Unknown SKU " + purchaseSku + ". Check to make " +
+    private void setSkuState(@NonNull List<String> skus, SkuState newSkuState) {
+        Map<String, SkuState> newSkuStates = new HashMap<>();
+        for (String sku : skus) {
+            if (!skuStateMap.containsKey(sku)) {
+                Log.e(TAG, "Unknown SKU " + sku + ". Check to make " +
                         "sure SKU matches SKUS in the Play developer console.");
             } else {
-                switch (purchase.getPurchaseState()) {
-                    case Purchase.PurchaseState.PENDING:
-                        skuStateLiveData.postValue(SkuState.SKU_STATE_PENDING);
-                        break;
-                    case Purchase.PurchaseState.UNSPECIFIED_STATE:
-                        skuStateLiveData.postValue(SkuState.SKU_STATE_UNPURCHASED);
-                        break;
-                    case Purchase.PurchaseState.PURCHASED:
-                        if (purchase.isAcknowledged()) {
-                            skuStateLiveData.postValue(
-                                    SkuState.SKU_STATE_PURCHASED_AND_ACKNOWLEDGED);
-                        } else {
-                            skuStateLiveData.postValue(SkuState.SKU_STATE_PURCHASED);
-                        }
-                        break;
-                    default:
-                        Log.e(TAG, "Purchase in unknown state: " + purchase.getPurchaseState());
-                }
+                newSkuStates.put(sku, newSkuState);
             }
         }
+        publishSkuStates(newSkuStates);
     }
 
     /**
-     * Since we (mostly) are getting sku states when we actually make a purchase or update
-     * purchases, we keep some internal state when we do things like acknowledge or consume.
+     * Publishes a snapshot of SKU states to the SKU state LiveData in a single pass on the main
+     * thread, rather than posting each SKU separately. LiveData whose state is unchanged are left
+     * alone so their observers aren't called.
      *
-     * @param sku         sku to change the state
-     * @param newSkuState the new state of the sku.
+     * @param newSkuStates the new state of every SKU in the snapshot; must not be modified later
      */
-    private void setSkuState(@NonNull String sku, SkuState newSkuState) {
-        MutableLiveData<SkuState> skuStateLiveData = skuStateMap.get(sku);
-        if (null == skuStateLiveData) {
-            Log.e(TAG, "Unknown SKU " + sku + ". Check to make " +
-                    "sure SKU matches SKUS in the Play developer console.");
-        } else {
-            skuStateLiveData.postValue(newSkuState);
+    private void publishSkuStates(@NonNull Map<String, SkuState> newSkuStates) {
+        if (newSkuStates.isEmpty()) {
+            return;
         }
+        final Map<String, SkuState> snapshot = Collections.unmodifiableMap(newSkuStates);
+        handler.post(() -> {
+            for (Map.Entry<String, SkuState> entry : snapshot.entrySet()) {
+                MutableLiveData<SkuState> skuStateLiveData = skuStateMap.get(entry.getKey());
+                assert skuStateLiveData != null;
+                if (skuStateLiveData.getValue() != entry.getValue()) {
+                    skuStateLiveData.setValue(entry.getValue());
+                }
+            }
+        });
+    }
+
+    /**
+     * Processes the purchase list on the billing executor. Signature verification and state
+     * derivation can be expensive for a large purchase restore, and the Play callbacks arrive on
+     * the main thread. The executor is single threaded, so purchase lists are still processed in
+     * the order they arrived.
+     */
+    private void processPurchaseListAsync(List<Purchase> purchases, List<String> skusToUpdate) {
+        billingExecutor.execute(() -> processPurchaseList(purchases, skusToUpdate));
     }
 
     /**
@@ -588,76 +845,63 @@ public class BillingDataSource implements LifecycleObserver, PurchasesUpdatedLis
      * @param skusToUpdate a list of skus that we want to update the state from --- this allows us
      *                     to set the state of non-returned SKUs to UNPURCHASED.
      */
+    @WorkerThread
     private void processPurchaseList(List<Purchase> purchases, List<String> skusToUpdate) {
-        HashSet<String> updatedSkus = new HashSet<>();
-        if (null != purchases) {
-            for (final Purchase purchase : purchases) {
-                for (String sku : purchase.getSkus()) {
-                    final MutableLiveData<SkuState> skuStateLiveData = skuStateMap.get(sku);
-                    if (null == skuStateLiveData) {
-                        Log.e(TAG, "Unknown SKU " + sku + ". Check to make " +
-                                "sure SKU matches SKUS in the Play developer console.");
-                        continue;
-                    }
-                    updatedSkus.add(sku);
-                }
-                // Global check to make sure all purchases are signed correctly.
-                // This check is best performed on your server.
-                int purchaseState = purchase.getPurchaseState();
-                if (purchaseState == Purchase.PurchaseState.PURCHASED) {
-                    if (!isSignatureValid(purchase)) {
-                        Log.e(TAG, "Invalid signature on purchase. Check to make " +
-                                "sure your public key is correct.");
-                        continue;
-                    }
-                    // only set the purchased state after we've validated the signature.
-                    setSkuStateFromPurchase(purchase);
-                    boolean isConsumable = false;
-                    for (String sku : purchase.getSkus()) {
-                        if (knownAutoConsumeSKUs.contains(sku)) {
-                            isConsumable = true;
-                        } else {
-                            if (isConsumable) {
-                                Log.e(TAG, "Purchase cannot contain a mixture of consumable" +
-                                        "and non-consumable items: " + purchase.getSkus().toString());
-                                isConsumable = false;
-                                break;
-                            }
-                        }
-                    }
-                    if ( isConsumable ) {
-                        consumePurchase(purchase);
-                    } else if (!purchase.isAcknowledged()) {
-                        billingClient.acknowledgePurchase(AcknowledgePurchaseParams.newBuilder()
-                                .setPurchaseToken(purchase.getPurchaseToken())
-                                .build(), billingResult -> {
-                            if (billingResult.getResponseCode()
-                                    == BillingClient.BillingResponseCode.OK) {
-                                // purchase acknowledged
-                                for ( String sku : purchase.getSkus() ) {
-                                    setSkuState(sku, SkuState.SKU_STATE_PURCHASED_AND_ACKNOWLEDGED);
-                                }
-                                newPurchase.postValue(purchase.getSkus());
-                            }
-                        });
-                    }
-                } else {
-                    // make sure the state is set
-                    setSkuStateFromPurchase(purchase);
-                }
-            }
-        } else{
+        if (null == purchases) {
             Log.d(TAG, "Empty purchase list.");
         }
-        // Clear purchase state of anything that didn't come with this purchase list if this is
-        // part of a refresh.
-        if (null != skusToUpdate) {
-            for (String sku : skusToUpdate) {
-                if (!updatedSkus.contains(sku)) {
-                    setSkuState(sku, SkuState.SKU_STATE_UNPURCHASED);
-                }
+        PurchaseListProcessor.Result result =
+                purchaseListProcessor.process(purchases, skusToUpdate);
+        for (String sku : result.unknownSkus) {
+            Log.e(TAG, "Unknown SKU " + sku + ". Check to make " +
+                    "sure SKU matches SKUS in the Play developer console.");
+        }
+        if (!result.invalidSignaturePurchases.isEmpty()) {
+            Log.e(TAG, "Invalid signature on " + result.invalidSignaturePurchases.size()
+                    + " purchases. Check to make sure your public key is correct.");
+        }
+        for (Purchase purchase : result.mixedPurchases) {
+            Log.e(TAG, "Purchase cannot contain a mixture of consumable" +
+                    "and non-consumable items: " + purchase.getSkus().toString());
+        }
+        for (Purchase purchase : result.purchasesToConsume) {
+            consumePurchase(purchase);
+        }
+        for (Purchase purchase : result.purchasesToAcknowledge) {
+            // The purchase is recorded before it is enqueued, since the queue may report it as
+            // acknowledged right away. The queue ignores purchases that are already acknowledged
+            // or being acknowledged; a purchase it has already acknowledged isn't recorded, as no
+            // batch will remove it.
+            String purchaseToken = purchase.getPurchaseToken();
+            Purchase previous = purchaseAcknowledgementInProcess.put(purchaseToken, purchase);
+            if (!acknowledgementQueue.enqueue(purchaseToken) && null == previous) {
+                purchaseAcknowledgementInProcess.remove(purchaseToken);
             }
         }
+        publishSkuStates(result.skuStates);
+    }
+
+    /**
+     * Called by the AcknowledgementQueue once every purchase in a batch has been acknowledged or
+     * has failed. The states of all acknowledged SKUs are published together.
+     */
+    private void onPurchasesAcknowledged(@NonNull List<String> acknowledgedTokens,
+            @NonNull List<String> failedTokens) {
+        List<String> acknowledgedSkus = new ArrayList<>();
+        for (String purchaseToken : acknowledgedTokens) {
+            Purchase purchase = purchaseAcknowledgementInProcess.remove(purchaseToken);
+            if (null != purchase) {
+                acknowledgedSkus.addAll(purchase.getSkus());
+            }
+        }
+        for (String purchaseToken : failedTokens) {
+            purchaseAcknowledgementInProcess.remove(purchaseToken);
+        }
+        if (!acknowledgedSkus.isEmpty()) {
+            // purchases acknowledged
+            setSkuState(acknowledgedSkus, SkuState.SKU_STATE_PURCHASED_AND_ACKNOWLEDGED);
+            newPurchase.send(acknowledgedSkus);
+        }
     }
 
     /**
@@ -668,36 +912,134 @@ public class BillingDataSource implements LifecycleObserver, PurchasesUpdatedLis
      */
     private void consumePurchase(@NonNull Purchase purchase) {
         // weak check to make sure we're not already consuming the sku
-        if (purchaseConsumptionInProcess.contains(purchase)) {
+        if (!purchaseConsumptionInProcess.add(purchase)) {
             // already consuming
             return;
         }
-        purchaseConsumptionInProcess.add(purchase);
-        billingClient.consumeAsync(ConsumeParams.newBuilder()
-                .setPurchaseToken(purchase.getPurchaseToken())
-                .build(), (billingResult, s) -> {
-            // ConsumeResponseListener
-            purchaseConsumptionInProcess.remove(purchase);
-            if (billingResult.getResponseCode() == BillingClient.BillingResponseCode.OK) {
-                Log.d(TAG, "Consumption successful. Delivering entitlement.");
-                purchaseConsumed.postValue(purchase.getSkus());
-                for (String sku: purchase.getSkus()) {
-                    // Since we've consumed the purchase
-                    setSkuState(sku, SkuState.SKU_STATE_UNPURCHASED);
-                    // And this also qualifies as a new purchase
-                }
-                newPurchase.postValue(purchase.getSkus());
-            } else {
-                Log.e(TAG, "Error while consuming: " + billingResult.getDebugMessage());
+        billingExecutor.execute(() -> {
+            // the journal entry has to be written before Play can consume the purchase
+            if (null != consumptionJournal) {
+                consumptionJournal.markPending(purchase.getPurchaseToken(), purchase.getSkus(),
+                        purchase.getQuantity());
             }
-            Log.d(TAG, "End consumption flow.");
+            billingClient.consumeAsync(ConsumeParams.newBuilder()
+                    .setPurchaseToken(purchase.getPurchaseToken())
+                    .build(), (billingResult, s) -> {
+                // ConsumeResponseListener
+                if (billingResult.getResponseCode() == BillingClient.BillingResponseCode.OK) {
+                    billingExecutor.execute(() -> {
+                        boolean granted = grantConsumedPurchase(purchase.getPurchaseToken());
+                        purchaseConsumptionInProcess.remove(purchase);
+                        if (!granted) {
+                            // reconcilePendingConsumptions already delivered this purchase
+                            Log.d(TAG, "Consumption already granted.");
+                            return;
+                        }
+                        Log.d(TAG, "Consumption successful. Delivering entitlement.");
+                        purchaseConsumed.send(purchase.getSkus());
+                        // Since we've consumed the purchase
+                        setSkuState(purchase.getSkus(), SkuState.SKU_STATE_UNPURCHASED);
+                        // And this also qualifies as a new purchase
+                        newPurchase.send(purchase.getSkus());
+                    });
+                } else {
+                    purchaseConsumptionInProcess.remove(purchase);
+                    Log.e(TAG, "Error while consuming: " + billingResult.getDebugMessage());
+                }
+                Log.d(TAG, "End consumption flow.");
+            });
         });
     }
 
+    /**
+     * Records a purchase as consumed in the journal and has the journal grant it. Both steps are
+     * conditional on the journal state, so calling this more than once for a purchase is safe.
+     *
+     * @return false if the purchase had already been granted, so its events must not be sent
+     * again; true if it was granted by this call or there is no journal
+     */
+    @WorkerThread
+    private boolean grantConsumedPurchase(@NonNull String purchaseToken) {
+        if (null == consumptionJournal) {
+            return true;
+        }
+        consumptionJournal.markConsumed(purchaseToken);
+        if (consumptionJournal.grant(purchaseToken)) {
+            Log.d(TAG, "Granted consumed purchase.");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Grants the purchases that were consumed before the process last died but never granted.
+     * Purchases whose consumption was still pending are resolved by
+     * {@link #reconcilePendingConsumptions} once we know which purchases are still owned.
+     */
+    @WorkerThread
+    private void replayConsumptionJournal() {
+        assert consumptionJournal != null;
+        int granted = consumptionJournal.grantAll(consumptionJournal.getConsumed());
+        if (granted > 0) {
+            Log.i(TAG, "Replayed grant of " + granted + " consumed purchases.");
+        }
+        consumptionJournal.pruneGranted(System.currentTimeMillis()
+                - GRANTED_CONSUMPTION_RETENTION);
+    }
+
+    /**
+     * A purchase whose consumption is pending in the journal but that Play no longer reports as
+     * owned was consumed without us hearing about it, so it is granted now. Pending purchases that
+     * are still owned will be consumed again by the normal purchase processing.
+     * <p>
+     * Only purchases that were already pending when the query was sent are checked. One that
+     * became pending later may be missing from the result only because the query is older, while
+     * its consumption is still running; it is granted when Play confirms the consumption.
+     *
+     * @param ownedInappPurchases the complete list of owned in-app purchases from a refresh
+     * @param queryIssuedAtMillis wall clock time at which the purchase query was sent
+     */
+    @WorkerThread
+    private void reconcilePendingConsumptions(@NonNull List<Purchase> ownedInappPurchases,
+            long queryIssuedAtMillis) {
+        if (null == consumptionJournal) {
+            return;
+        }
+        Map<String, List<String>> pendingConsumptions =
+                consumptionJournal.getPendingBefore(queryIssuedAtMillis);
+        if (pendingConsumptions.isEmpty()) {
+            return;
+        }
+        PurchaseIndex ownedPurchaseIndex = new PurchaseIndex(ownedInappPurchases);
+        List<String> completedConsumptions = new ArrayList<>();
+        for (Map.Entry<String, List<String>> pendingConsumption :
+                pendingConsumptions.entrySet()) {
+            if (null == ownedPurchaseIndex.getPurchase(pendingConsumption.getKey())) {
+                Log.i(TAG, "Pending consumption completed while we were away: "
+                        + pendingConsumption.getValue());
+                consumptionJournal.markConsumed(pendingConsumption.getKey());
+                completedConsumptions.add(pendingConsumption.getKey());
+            }
+        }
+        if (completedConsumptions.isEmpty()) {
+            return;
+        }
+        // all of them are granted in one transaction
+        consumptionJournal.grantAll(completedConsumptions);
+        for (String purchaseToken : completedConsumptions) {
+            newPurchase.send(pendingConsumptions.get(purchaseToken));
+        }
+    }
+
     /**
      * Launch the billing flow. This will launch an external Activity for a result, so it requires
      * an Activity reference. For subscriptions, it supports upgrading from one SKU type to another
-     * by passing in SKUs to be upgraded.
+     * by passing in SKUs to be upgraded. If the billing client isn't connected, the flow is
+     * launched once it is.
+     * <p>
+     * Reconnecting can take minutes, so only a weak reference to the activity is kept while
+     * waiting. If the activity has been destroyed or is finishing by the time the flow can be
+     * launched, the purchase is dropped; the user can start it again from the new activity.
      *
      * @param activity    active activity to launch our billing flow from
      * @param sku         SKU to be purchased
@@ -705,30 +1047,44 @@ public class BillingDataSource implements LifecycleObserver, PurchasesUpdatedLis
      */
     public void launchBillingFlow(Activity activity, @NonNull String sku,
             String... upgradeSkus) {
+        WeakReference<Activity> activityReference = new WeakReference<>(activity);
+        connectionSupervisor.runWhenReady(() ->
+                launchBillingFlowWhenReady(activityReference, sku, upgradeSkus));
+    }
+
+    /**
+     * @return the activity to launch the billing flow from, or null if it is gone or going
+     */
+    @Nullable
+    private static Activity getLaunchableActivity(
+            @NonNull WeakReference<Activity> activityReference) {
+        Activity activity = activityReference.get();
+        if (null == activity || activity.isFinishing() || activity.isDestroyed()) {
+            Log.w(TAG, "Activity is gone, not launching the billing flow.");
+            return null;
+        }
+        return activity;
+    }
+
+    private void launchBillingFlowWhenReady(@NonNull WeakReference<Activity> activityReference,
+            @NonNull String sku, String... upgradeSkus) {
+        if (null == getLaunchableActivity(activityReference)) {
+            return;
+        }
         LiveData<SkuDetails> skuDetailsLiveData = skuDetailsLiveDataMap.get(sku);
         assert skuDetailsLiveData != null;
         SkuDetails skuDetails = skuDetailsLiveData.getValue();
         if (null != skuDetails) {
             if (null != upgradeSkus && upgradeSkus.length > 0) {
-                billingClient.queryPurchasesAsync(BillingClient.SkuType.SUBS,
+                purchasesQueryCoalescer.queryPurchasesAsync(BillingClient.SkuType.SUBS,
                         (br, purchasesList) -> {
-                            List<Purchase> heldSubscriptions = new LinkedList<>();
+                            List<Purchase> heldSubscriptions;
                             if (br.getResponseCode() != BillingClient.BillingResponseCode.OK) {
                                 Log.e(TAG, "Problem getting purchases: " + br.getDebugMessage());
+                                heldSubscriptions = new ArrayList<>();
                             } else {
-                                if (null != purchasesList) {
-                                    for (Purchase purchase : purchasesList) {
-                                        for (String upgradeSku : upgradeSkus) {
-                                            for (String purchaseSku : purchase.getSkus()) {
-                                                if (purchaseSku.equals(upgradeSku)) {
-                                                    if ( !heldSubscriptions.contains(purchase) ) {
-                                                        heldSubscriptions.add(purchase);
-                                                    }
-                                                }
-                                            }
-                                        }
-                                    }
-                                }
+                                heldSubscriptions =
+                                        new PurchaseIndex(purchasesList).getPurchases(upgradeSkus);
                             }
                             BillingFlowParams.Builder billingFlowParamsBuilder = BillingFlowParams.newBuilder();
                             billingFlowParamsBuilder.setSkuDetails(skuDetails);
@@ -741,6 +1097,11 @@ public class BillingDataSource implements LifecycleObserver, PurchasesUpdatedLis
                                                             .getPurchaseToken())
                                                     .build()
                                     );
+                                    Activity activity =
+                                            getLaunchableActivity(activityReference);
+                                    if (null == activity) {
+                                        break;
+                                    }
                                     br = billingClient.launchBillingFlow(activity,
                                             billingFlowParamsBuilder.build());
                                     if (br.getResponseCode() == BillingClient.BillingResponseCode.OK) {
@@ -759,6 +1120,10 @@ public class BillingDataSource implements LifecycleObserver, PurchasesUpdatedLis
             } else {
                 BillingFlowParams.Builder billingFlowParamsBuilder = BillingFlowParams.newBuilder();
                 billingFlowParamsBuilder.setSkuDetails(skuDetails);
+                Activity activity = getLaunchableActivity(activityReference);
+                if (null == activity) {
+                    return;
+                }
                 BillingResult br = billingClient.launchBillingFlow(activity,
                         billingFlowParamsBuilder.build());
                 if (br.getResponseCode() == BillingClient.BillingResponseCode.OK) {
@@ -797,7 +1162,7 @@ public class BillingDataSource implements LifecycleObserver, PurchasesUpdatedLis
         switch (billingResult.getResponseCode()) {
             case BillingClient.BillingResponseCode.OK:
                 if (null != list) {
-                    processPurchaseList(list, null);
+                    processPurchaseListAsync(list, null);
                     return;
                 } else {
                     Log.d(TAG, "Null Purchase List Returned from OK response!");
@@ -841,15 +1206,8 @@ public class BillingDataSource implements LifecycleObserver, PurchasesUpdatedLis
         Boolean billingInProcess = billingFlowInProcess.getValue();
 
         // this just avoids an extra purchase refresh after we finish a billing flow
-        if (billingSetupComplete && (null == billingInProcess || !billingInProcess)) {
+        if (connectionSupervisor.isReady() && (null == billingInProcess || !billingInProcess)) {
             refreshPurchasesAsync();
         }
     }
-
-    private enum SkuState {
-        SKU_STATE_UNPURCHASED,
-        SKU_STATE_PENDING,
-        SKU_STATE_PURCHASED,
-        SKU_STATE_PURCHASED_AND_ACKNOWLEDGED,
-    }
 }
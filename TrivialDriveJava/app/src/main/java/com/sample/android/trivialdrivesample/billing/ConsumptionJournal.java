@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.trivialdrivesample.billing;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A durable record of consumable purchases, keyed by purchase token, that lets the
+ * BillingDataSource deliver each consumed purchase exactly once even if the process dies in the
+ * middle of a consumption.
+ * <p>
+ * Each purchase moves from PENDING (consumption is about to start) to CONSUMED (Play confirmed the
+ * consumption) to GRANTED (the entitlement has been delivered). The implementation is provided by
+ * the application, since granting the entitlement is application logic and has to be recorded in
+ * the same transaction as the GRANTED state.
+ * <p>
+ * All methods are called on the billing executor and may block on disk I/O.
+ */
+public interface ConsumptionJournal {
+    /**
+     * Records that consumption of a purchase is about to start, and when. Calling this again for
+     * a purchase that is already in the journal does not change its state or that time.
+     *
+     * @param quantity how many of each SKU the purchase is for, so that granting can deliver
+     *                 all of them
+     */
+    @WorkerThread
+    void markPending(@NonNull String purchaseToken, @NonNull List<String> skus, int quantity);
+
+    /**
+     * Records that Play has confirmed the consumption of a purchase.
+     */
+    @WorkerThread
+    void markConsumed(@NonNull String purchaseToken);
+
+    /**
+     * Delivers the entitlement for a consumed purchase and marks it GRANTED in one transaction.
+     * Does nothing if the purchase was already granted or isn't in the journal.
+     *
+     * @return true if the entitlement was delivered by this call
+     */
+    @WorkerThread
+    boolean grant(@NonNull String purchaseToken);
+
+    /**
+     * Delivers the entitlements for several consumed purchases and marks them GRANTED in one
+     * transaction. Purchases that were already granted or aren't in the journal are skipped.
+     *
+     * @return the number of purchases whose entitlement was delivered by this call
+     */
+    @WorkerThread
+    int grantAll(@NonNull Collection<String> purchaseTokens);
+
+    /**
+     * @param pendingBeforeMillis wall clock time in milliseconds
+     * @return the purchase tokens and SKUs of purchases whose consumption was started before
+     * the given time but not confirmed
+     */
+    @WorkerThread
+    @NonNull
+    Map<String, List<String>> getPendingBefore(long pendingBeforeMillis);
+
+    /**
+     * @return the purchase tokens of purchases that were consumed but not yet granted
+     */
+    @WorkerThread
+    @NonNull
+    List<String> getConsumed();
+
+    /**
+     * Deletes the entries of purchases that were granted before the given time. Play no longer
+     * reports a consumed purchase, so old granted entries are never needed again.
+     *
+     * @param grantedBeforeMillis wall clock time in milliseconds
+     * @return the number of entries that were deleted
+     */
+    @WorkerThread
+    int pruneGranted(long grantedBeforeMillis);
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.trivialdrivesample.billing;
+
+/**
+ * A fixed-size latency histogram with logarithmic buckets, in the style of HdrHistogram.
+ * <p>
+ * Values below SUB_BUCKET_COUNT microseconds are counted exactly. Above that, every power of two
+ * is split into SUB_BUCKET_COUNT linear sub-buckets, so any recorded value is reported within
+ * 1/SUB_BUCKET_COUNT (12.5%) of its true value, from microseconds up to about an hour, in a few
+ * kilobytes. Recording is constant time and allocation free.
+ * <p>
+ * This class isn't thread safe; callers synchronize.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    // values are clamped to 2^MAX_VALUE_BITS - 1 microseconds, a little over an hour
+    private static final int MAX_VALUE_BITS = 32;
+    private static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+    private static final int BUCKET_COUNT = (MAX_VALUE_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long totalCount = 0;
+    private long maxValue = 0;
+
+    /**
+     * @param micros the latency to record, in microseconds
+     */
+    void record(long micros) {
+        long value = Math.max(0, Math.min(micros, MAX_VALUE));
+        counts[indexOf(value)]++;
+        totalCount++;
+        maxValue = Math.max(maxValue, value);
+    }
+
+    long getTotalCount() {
+        return totalCount;
+    }
+
+    long getMaxValue() {
+        return maxValue;
+    }
+
+    /**
+     * @param percentile percentile to look up, between 0 and 100
+     * @return the highest value of the bucket holding the percentile, in microseconds, or 0 if
+     * nothing has been recorded. Reporting the top of the bucket never understates a tail.
+     */
+    long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long countAtPercentile = Math.max(1,
+                (long) Math.ceil(percentile / 100.0 * totalCount));
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += counts[i];
+            if (count >= countAtPercentile) {
+                return Math.min(lowestValueAt(i + 1) - 1, maxValue);
+            }
+        }
+        return maxValue;
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKET_COUNT - 1);
+        return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    private static long lowestValueAt(int index) {
+        int bucket = index / SUB_BUCKET_COUNT;
+        int subBucket = index % SUB_BUCKET_COUNT;
+        if (bucket == 0) {
+            return subBucket;
+        }
+        return (long) (SUB_BUCKET_COUNT + subBucket) << (bucket - 1);
+    }
+}
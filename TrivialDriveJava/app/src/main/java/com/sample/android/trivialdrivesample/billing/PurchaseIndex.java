@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.trivialdrivesample.billing;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.billingclient.api.Purchase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable index over a list of purchases, built once per purchase query result.
+ * <p>
+ * A purchase can contain several SKUs and a SKU can appear in several purchases, so looking up
+ * the purchases for a set of SKUs by walking the purchase list is quadratic. The index maps each
+ * SKU to the purchases that contain it and each purchase token to its purchase, so lookups cost
+ * the same no matter how many purchases the user holds.
+ */
+final class PurchaseIndex {
+    private final Map<String, List<Purchase>> purchasesBySku = new HashMap<>();
+    private final Map<String, Purchase> purchasesByToken = new LinkedHashMap<>();
+
+    /**
+     * @param purchases the purchases returned from a single query; may be null
+     */
+    PurchaseIndex(@Nullable List<Purchase> purchases) {
+        if (null == purchases) {
+            return;
+        }
+        for (Purchase purchase : purchases) {
+            if (null != purchasesByToken.put(purchase.getPurchaseToken(), purchase)) {
+                // already indexed
+                continue;
+            }
+            for (String sku : purchase.getSkus()) {
+                List<Purchase> skuPurchases = purchasesBySku.get(sku);
+                if (null == skuPurchases) {
+                    skuPurchases = new ArrayList<>(1);
+                    purchasesBySku.put(sku, skuPurchases);
+                }
+                skuPurchases.add(purchase);
+            }
+        }
+    }
+
+    /**
+     * @param sku the sku to look up
+     * @return the purchases that contain the sku, in query order
+     */
+    @NonNull
+    List<Purchase> getPurchases(@NonNull String sku) {
+        List<Purchase> skuPurchases = purchasesBySku.get(sku);
+        return null == skuPurchases ? Collections.emptyList()
+                : Collections.unmodifiableList(skuPurchases);
+    }
+
+    /**
+     * Returns every purchase that contains at least one of the requested skus. A purchase that
+     * contains more than one of the skus is only returned once.
+     *
+     * @param skus the skus to look up
+     * @return the matching purchases
+     */
+    @NonNull
+    List<Purchase> getPurchases(@NonNull String... skus) {
+        if (skus.length == 1) {
+            return getPurchases(skus[0]);
+        }
+        Map<String, Purchase> result = new LinkedHashMap<>();
+        for (String sku : skus) {
+            for (Purchase purchase : getPurchases(sku)) {
+                result.put(purchase.getPurchaseToken(), purchase);
+            }
+        }
+        return new ArrayList<>(result.values());
+    }
+
+    /**
+     * @param purchaseToken the token to look up
+     * @return the purchase with the token, or null if it isn't part of this result
+     */
+    @Nullable
+    Purchase getPurchase(@NonNull String purchaseToken) {
+        return purchasesByToken.get(purchaseToken);
+    }
+
+    /**
+     * @return the number of distinct purchases in the index
+     */
+    int size() {
+        return purchasesByToken.size();
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.trivialdrivesample.billing;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.billingclient.api.Purchase;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Works out what a purchase query result means: the new state of every known SKU, and which
+ * purchases have to be consumed or acknowledged.
+ * <p>
+ * This is the part of purchase processing that runs for every purchase on every refresh. It
+ * doesn't call into the Android framework, so the benchmark module compiles and measures this
+ * class as it ships. Signature checks and what has been acknowledged locally are asked of the
+ * {@link Checks}, and acting on the {@link Result} is left to the caller.
+ */
+class PurchaseListProcessor {
+    interface Checks {
+        /**
+         * @return true if the purchase was signed with the app's key
+         */
+        boolean isSignatureValid(@NonNull Purchase purchase);
+
+        /**
+         * @return true if the purchase was acknowledged, even if Play doesn't report it yet
+         */
+        boolean isAcknowledged(@NonNull String purchaseToken);
+    }
+
+    /**
+     * The outcome of processing one purchase list.
+     */
+    static class Result {
+        // the new state of every SKU that the purchase list tells us about
+        final Map<String, SkuState> skuStates = new HashMap<>();
+        final List<Purchase> purchasesToConsume = new ArrayList<>();
+        final List<Purchase> purchasesToAcknowledge = new ArrayList<>();
+        // SKUs in the purchases that aren't known SKUs
+        final Set<String> unknownSkus = new HashSet<>();
+        final List<Purchase> invalidSignaturePurchases = new ArrayList<>();
+        // purchases that mix consumable and non-consumable SKUs, which are never consumed
+        final List<Purchase> mixedPurchases = new ArrayList<>();
+    }
+
+    private final Set<String> knownSkus;
+    private final Set<String> knownAutoConsumeSkus;
+    private final Checks checks;
+
+    /**
+     * @param knownSkus            every inapp and subscription SKU the app knows about
+     * @param knownAutoConsumeSkus the SKUs that are consumed as soon as they are purchased
+     * @param checks               checks the purchases
+     */
+    PurchaseListProcessor(@NonNull Set<String> knownSkus,
+            @NonNull Set<String> knownAutoConsumeSkus, @NonNull Checks checks) {
+        this.knownSkus = knownSkus;
+        this.knownAutoConsumeSkus = knownAutoConsumeSkus;
+        this.checks = checks;
+    }
+
+    /**
+     * Processes a purchase list. PURCHASED is only reported for a purchase whose signature is
+     * valid, and PURCHASED_AND_ACKNOWLEDGED once it has been acknowledged.
+     *
+     * @param purchases    the purchases to process; may be null
+     * @param skusToUpdate if this isn't null, these SKUs are set to UNPURCHASED unless they are
+     *                     in one of the purchases
+     * @return the new SKU states and the purchases to act on
+     */
+    @NonNull
+    Result process(@Nullable List<Purchase> purchases,
+            @Nullable Collection<String> skusToUpdate) {
+        Result result = new Result();
+        Set<String> updatedSkus = new HashSet<>();
+        if (null != purchases) {
+            for (Purchase purchase : purchases) {
+                for (String sku : purchase.getSkus()) {
+                    if (knownSkus.contains(sku)) {
+                        updatedSkus.add(sku);
+                    } else {
+                        result.unknownSkus.add(sku);
+                    }
+                }
+                if (purchase.getPurchaseState() != Purchase.PurchaseState.PURCHASED) {
+                    setSkuStates(purchase, result.skuStates);
+                    continue;
+                }
+                // Global check to make sure all purchases are signed correctly.
+                // This check is best performed on your server.
+                if (!checks.isSignatureValid(purchase)) {
+                    result.invalidSignaturePurchases.add(purchase);
+                    continue;
+                }
+                // only set the purchased state after we've validated the signature.
+                setSkuStates(purchase, result.skuStates);
+                boolean isConsumable = false;
+                for (String sku : purchase.getSkus()) {
+                    if (knownAutoConsumeSkus.contains(sku)) {
+                        isConsumable = true;
+                    } else if (isConsumable) {
+                        result.mixedPurchases.add(purchase);
+                        isConsumable = false;
+                        break;
+                    }
+                }
+                if (isConsumable) {
+                    result.purchasesToConsume.add(purchase);
+                } else if (!purchase.isAcknowledged()) {
+                    result.purchasesToAcknowledge.add(purchase);
+                }
+            }
+        }
+        // Clear purchase state of anything that didn't come with this purchase list if this is
+        // part of a refresh.
+        if (null != skusToUpdate) {
+            for (String sku : skusToUpdate) {
+                if (!updatedSkus.contains(sku)) {
+                    result.skuStates.put(sku, SkuState.SKU_STATE_UNPURCHASED);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sets the state of the known SKUs in a purchase from its purchase state and acknowledged
+     * state.
+     */
+    private void setSkuStates(@NonNull Purchase purchase,
+            @NonNull Map<String, SkuState> skuStates) {
+        SkuState skuState;
+        switch (purchase.getPurchaseState()) {
+            case Purchase.PurchaseState.PENDING:
+                skuState = SkuState.SKU_STATE_PENDING;
+                break;
+            case Purchase.PurchaseState.UNSPECIFIED_STATE:
+                skuState = SkuState.SKU_STATE_UNPURCHASED;
+                break;
+            case Purchase.PurchaseState.PURCHASED:
+                // Play may still report a purchase we've just acknowledged as unacknowledged
+                skuState = purchase.isAcknowledged()
+                        || checks.isAcknowledged(purchase.getPurchaseToken())
+                        ? SkuState.SKU_STATE_PURCHASED_AND_ACKNOWLEDGED
+                        : SkuState.SKU_STATE_PURCHASED;
+                break;
+            default:
+                return;
+        }
+        for (String sku : purchase.getSkus()) {
+            if (knownSkus.contains(sku)) {
+                skuStates.put(sku, skuState);
+            }
+        }
+    }
+}
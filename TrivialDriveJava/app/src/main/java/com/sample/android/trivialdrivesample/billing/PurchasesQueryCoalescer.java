@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.trivialdrivesample.billing;
+
+import androidx.annotation.NonNull;
+
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.Purchase;
+import com.android.billingclient.api.PurchasesResponseListener;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Merges concurrent purchase queries of the same SKU type into as few calls to
+ * {@link BillingClient#queryPurchasesAsync} as possible without returning stale results.
+ * <p>
+ * Purchases are requeried on resume, after subscription messages and on explicit refreshes, and
+ * these often overlap. A query that is already in flight may have been issued before the change
+ * a later caller wants to see, such as a purchase, consume or upgrade, so later requests are not
+ * attached to it. Instead they wait for one follow-up query that is issued as soon as the
+ * in-flight query finishes, and every request that arrives in the meantime shares that follow-up.
+ * A listener that is attached more than once to the same query is only called once, which lets
+ * callers that always do the same thing with the result pass a shared listener.
+ */
+class PurchasesQueryCoalescer {
+    /**
+     * A listener that also needs to know when the query that answers it was sent to Play, for
+     * example to tell which local changes the result can already reflect.
+     */
+    interface TimedListener extends PurchasesResponseListener {
+        /**
+         * @param issuedAtMillis wall clock time in milliseconds at which the query was sent
+         */
+        void onQueryPurchasesResponse(@NonNull BillingResult billingResult,
+                @NonNull List<Purchase> purchases, long issuedAtMillis);
+
+        /**
+         * Called when the issue time is unknown, so the result is treated as being older than
+         * any local change.
+         */
+        @Override
+        default void onQueryPurchasesResponse(@NonNull BillingResult billingResult,
+                @NonNull List<Purchase> purchases) {
+            onQueryPurchasesResponse(billingResult, purchases, Long.MIN_VALUE);
+        }
+    }
+
+    private final BillingClient billingClient;
+    // listeners waiting for the in-flight query of each SKU type
+    private final Map<String, Set<PurchasesResponseListener>> inFlightQueries = new HashMap<>();
+    // listeners waiting for the follow-up query of each SKU type
+    private final Map<String, Set<PurchasesResponseListener>> followUpQueries = new HashMap<>();
+    private final AtomicLong issuedQueryCount = new AtomicLong();
+    private final AtomicLong mergedQueryCount = new AtomicLong();
+
+    PurchasesQueryCoalescer(@NonNull BillingClient billingClient) {
+        this.billingClient = billingClient;
+    }
+
+    /**
+     * Queries purchases of the given type. If a query is already in flight, the request waits for
+     * a follow-up query that starts when it finishes.
+     *
+     * @param skuType  sku type, inapp or subscription
+     * @param listener called with the result of a query issued after this call
+     */
+    void queryPurchasesAsync(@NonNull String skuType,
+            @NonNull PurchasesResponseListener listener) {
+        synchronized (inFlightQueries) {
+            if (inFlightQueries.containsKey(skuType)) {
+                Set<PurchasesResponseListener> listeners = followUpQueries.get(skuType);
+                if (null == listeners) {
+                    listeners = new LinkedHashSet<>();
+                    followUpQueries.put(skuType, listeners);
+                } else {
+                    mergedQueryCount.incrementAndGet();
+                }
+                listeners.add(listener);
+                return;
+            }
+            Set<PurchasesResponseListener> listeners = new LinkedHashSet<>();
+            listeners.add(listener);
+            inFlightQueries.put(skuType, listeners);
+        }
+        issueQuery(skuType);
+    }
+
+    private void issueQuery(@NonNull String skuType) {
+        issuedQueryCount.incrementAndGet();
+        final long issuedAtMillis = System.currentTimeMillis();
+        billingClient.queryPurchasesAsync(skuType, (billingResult, list) -> {
+            Set<PurchasesResponseListener> listeners;
+            boolean followUp;
+            synchronized (inFlightQueries) {
+                listeners = inFlightQueries.remove(skuType);
+                Set<PurchasesResponseListener> followUpListeners =
+                        followUpQueries.remove(skuType);
+                followUp = null != followUpListeners;
+                if (followUp) {
+                    inFlightQueries.put(skuType, followUpListeners);
+                }
+            }
+            if (followUp) {
+                issueQuery(skuType);
+            }
+            if (null == listeners) {
+                return;
+            }
+            for (PurchasesResponseListener waitingListener : listeners) {
+                if (waitingListener instanceof TimedListener) {
+                    ((TimedListener) waitingListener).onQueryPurchasesResponse(billingResult,
+                            list, issuedAtMillis);
+                } else {
+                    waitingListener.onQueryPurchasesResponse(billingResult, list);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the number of queries that were actually sent to Play
+     */
+    long getIssuedQueryCount() {
+        return issuedQueryCount.get();
+    }
+
+    /**
+     * @return the number of requests that shared a follow-up query with an earlier request
+     */
+    long getMergedQueryCount() {
+        return mergedQueryCount.get();
+    }
+}
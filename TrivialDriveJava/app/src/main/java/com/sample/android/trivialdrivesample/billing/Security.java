@@ -34,7 +34,6 @@ import java.security.InvalidKeyException;
 import java.security.KeyFactory;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
-import java.security.Signature;
 import java.security.SignatureException;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
@@ -42,11 +41,13 @@ import java.security.spec.X509EncodedKeySpec;
 /**
  * Security-related methods. For a secure implementation, all of this code should be implemented on
  * a server that communicates with the application on the device.
+ * <p>
+ * Purchases are verified on every refresh, so the public key is only parsed once and the
+ * verification itself is done by a {@link SignatureVerifier}, which remembers recent results.
  */
 class Security {
     static final private String TAG = "IABUtil/Security";
     static final private String KEY_FACTORY_ALGORITHM = "RSA";
-    static final private String SIGNATURE_ALGORITHM = "SHA1withRSA";
 
     /**
      * BASE_64_ENCODED_PUBLIC_KEY should be YOUR APPLICATION PUBLIC KEY. You currently get this
@@ -57,6 +58,10 @@ class Security {
 
     final private static String BASE_64_ENCODED_PUBLIC_KEY = BuildConfig.BASE64_ENCODED_PUBLIC_KEY;
 
+    // created lazily from BASE_64_ENCODED_PUBLIC_KEY, which never changes at runtime
+    private static SignatureVerifier signatureVerifier;
+    private static boolean publicKeyParsed = false;
+
     /**
      * Verifies that the data was signed with the given signature
      *
@@ -70,13 +75,30 @@ class Security {
             Log.w(TAG, "Purchase verification failed: missing data.");
             return false;
         }
-        try {
-            PublicKey key = generatePublicKey(BASE_64_ENCODED_PUBLIC_KEY);
-            return verify(key, signedData, signature);
-        } catch (IOException e) {
-            Log.e(TAG, "Error generating PublicKey from encoded key: " + e.getMessage());
+        SignatureVerifier verifier = getSignatureVerifier();
+        if (null == verifier) {
             return false;
         }
+        return verify(verifier, signedData, signature);
+    }
+
+    /**
+     * Returns the SignatureVerifier for BASE_64_ENCODED_PUBLIC_KEY, generating the key on first
+     * use.
+     *
+     * @return the verifier, or null if the encoded key is invalid
+     */
+    static synchronized private SignatureVerifier getSignatureVerifier() {
+        if (!publicKeyParsed) {
+            try {
+                signatureVerifier = new SignatureVerifier(
+                        generatePublicKey(BASE_64_ENCODED_PUBLIC_KEY));
+            } catch (IOException e) {
+                Log.e(TAG, "Error generating PublicKey from encoded key: " + e.getMessage());
+            }
+            publicKeyParsed = true;
+        }
+        return signatureVerifier;
     }
 
     /**
@@ -105,12 +127,13 @@ class Security {
      * Verifies that the signature from the server matches the computed signature on the data.
      * Returns true if the data is correctly signed.
      *
-     * @param publicKey  public key associated with the developer account
+     * @param verifier   verifier for the public key associated with the developer account
      * @param signedData signed data from server
      * @param signature  server signature
      * @return true if the data and signature match
      */
-    static private Boolean verify(PublicKey publicKey, String signedData, String signature) {
+    static private boolean verify(SignatureVerifier verifier, String signedData,
+            String signature) {
         byte[] signatureBytes;
         try {
             signatureBytes = Base64.decode(signature, Base64.DEFAULT);
@@ -119,17 +142,11 @@ class Security {
             return false;
         }
         try {
-            Signature signatureAlgorithm = Signature.getInstance(SIGNATURE_ALGORITHM);
-            signatureAlgorithm.initVerify(publicKey);
-            signatureAlgorithm.update(signedData.getBytes());
-            if (!signatureAlgorithm.verify(signatureBytes)) {
+            if (!verifier.verify(signedData, signatureBytes)) {
                 Log.w(TAG, "Signature verification failed...");
                 return false;
             }
             return true;
-        } catch (NoSuchAlgorithmException e) {
-            // "RSA" is guaranteed to be available.
-            throw new RuntimeException(e);
         } catch (InvalidKeyException e) {
             Log.e(TAG, "Invalid key specification.");
         } catch (SignatureException e) {
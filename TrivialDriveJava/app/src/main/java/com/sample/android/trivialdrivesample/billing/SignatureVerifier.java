@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.trivialdrivesample.billing;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Verifies purchase signatures against a single public key and remembers recent results.
+ * <p>
+ * Signature instances are reused per thread, and results are remembered by a SHA-256 digest of
+ * the signed data and signature, so verifying a purchase that has already been seen only costs a
+ * digest and a map lookup. This class has no Android dependencies; {@link Security} takes care of
+ * decoding keys and signatures and of logging, which lets the benchmark module run it on a plain
+ * JVM.
+ */
+final class SignatureVerifier {
+    static final String SIGNATURE_ALGORITHM = "SHA1withRSA";
+    static final private String DIGEST_ALGORITHM = "SHA-256";
+    // Every refresh verifies the whole purchase list in the same order, so the cap has to hold
+    // all of it: once the list outgrows the cache, each entry is evicted before it comes around
+    // again. Play returns a few owned purchases per user; 2048 results take about 200 KB.
+    static final private int MAX_CACHED_RESULTS = 2048;
+
+    private static final ThreadLocal<Signature> signatureAlgorithms =
+            new ThreadLocal<Signature>() {
+                @Override
+                protected Signature initialValue() {
+                    try {
+                        return Signature.getInstance(SIGNATURE_ALGORITHM);
+                    } catch (NoSuchAlgorithmException e) {
+                        // "RSA" is guaranteed to be available.
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+
+    private static final ThreadLocal<MessageDigest> messageDigests =
+            new ThreadLocal<MessageDigest>() {
+                @Override
+                protected MessageDigest initialValue() {
+                    try {
+                        return MessageDigest.getInstance(DIGEST_ALGORITHM);
+                    } catch (NoSuchAlgorithmException e) {
+                        // "SHA-256" is guaranteed to be available.
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+
+    private final PublicKey publicKey;
+
+    // verification results in insertion order, keyed by digest of (signedData, signature)
+    private final Map<ByteBuffer, Boolean> verificationResults =
+            new LinkedHashMap<ByteBuffer, Boolean>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Boolean> eldest) {
+                    return size() > MAX_CACHED_RESULTS;
+                }
+            };
+
+    /**
+     * @param publicKey public key associated with the developer account
+     */
+    SignatureVerifier(@NonNull PublicKey publicKey) {
+        this.publicKey = publicKey;
+    }
+
+    /**
+     * Verifies that the data was signed with the given signature, using a remembered result if
+     * the same data and signature have been verified recently.
+     *
+     * @param signedData the signed JSON string (signed, not encrypted)
+     * @param signature  the decoded signature for the data
+     * @return true if the data and signature match
+     * @throws InvalidKeyException if the public key can't be used for verification
+     * @throws SignatureException  if the signature can't be processed
+     */
+    boolean verify(@NonNull String signedData, @NonNull byte[] signature)
+            throws InvalidKeyException, SignatureException {
+        ByteBuffer resultKey = digest(signedData, signature);
+        synchronized (verificationResults) {
+            Boolean cachedResult = verificationResults.get(resultKey);
+            if (null != cachedResult) {
+                return cachedResult;
+            }
+        }
+        boolean result = verifyUncached(signedData, signature);
+        synchronized (verificationResults) {
+            verificationResults.put(resultKey, result);
+        }
+        return result;
+    }
+
+    /**
+     * Verifies that the signature matches the computed signature on the data, without consulting
+     * or updating the remembered results.
+     *
+     * @param signedData the signed JSON string (signed, not encrypted)
+     * @param signature  the decoded signature for the data
+     * @return true if the data and signature match
+     * @throws InvalidKeyException if the public key can't be used for verification
+     * @throws SignatureException  if the signature can't be processed
+     */
+    boolean verifyUncached(@NonNull String signedData, @NonNull byte[] signature)
+            throws InvalidKeyException, SignatureException {
+        Signature signatureAlgorithm = signatureAlgorithms.get();
+        signatureAlgorithm.initVerify(publicKey);
+        signatureAlgorithm.update(signedData.getBytes());
+        return signatureAlgorithm.verify(signature);
+    }
+
+    /**
+     * Computes the key used to remember a verification result. A cryptographic digest is used so
+     * that a forged purchase can't be crafted to collide with a verified one.
+     */
+    static private ByteBuffer digest(String signedData, byte[] signature) {
+        MessageDigest messageDigest = messageDigests.get();
+        messageDigest.reset();
+        byte[] signedDataBytes = signedData.getBytes(StandardCharsets.UTF_8);
+        // prefixing the length of the signed data keeps it apart from the signature bytes
+        messageDigest.update(ByteBuffer.allocate(4).putInt(signedDataBytes.length).array());
+        messageDigest.update(signedDataBytes);
+        messageDigest.update(signature);
+        // ByteBuffer compares by content, so it can be used as a map key
+        return ByteBuffer.wrap(messageDigest.digest());
+    }
+}
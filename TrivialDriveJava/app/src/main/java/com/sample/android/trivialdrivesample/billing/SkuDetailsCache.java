@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.trivialdrivesample.billing;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.android.billingclient.api.SkuDetails;
+
+import org.json.JSONException;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A small persistent store for SkuDetails, so prices and titles can be shown on a cold start
+ * before the Play Billing service has answered a query.
+ * <p>
+ * Each entry is keyed by SKU type and SKU and holds the original JSON returned by Play, which is
+ * all that is needed to rebuild a SkuDetails object. The time of the last successful query is
+ * stored per SKU type so the data source can decide whether the cached values are still fresh.
+ * <p>
+ * SharedPreferences is used instead of Room so that the BillingDataSource keeps no dependency on
+ * the application's database.
+ */
+class SkuDetailsCache {
+    private static final String TAG = "TrivialDrive:" + SkuDetailsCache.class.getSimpleName();
+    private static final String PREFERENCES_NAME = "billing_sku_details_cache";
+    private static final String DETAILS_KEY_PREFIX = "details:";
+    private static final String RESPONSE_TIME_KEY_PREFIX = "time:";
+
+    private final SharedPreferences preferences;
+
+    SkuDetailsCache(@NonNull Context context) {
+        preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    private static String detailsKey(@NonNull String skuType, @NonNull String sku) {
+        return DETAILS_KEY_PREFIX + skuType + ":" + sku;
+    }
+
+    /**
+     * Reads the cached SkuDetails for the requested SKUs. SKUs that have never been cached, or
+     * whose cached JSON can no longer be parsed, are left out of the result.
+     *
+     * @param skuType sku type, inapp or subscription
+     * @param skus    skus to read the details for
+     * @return a map from SKU to its cached SkuDetails
+     */
+    @NonNull
+    Map<String, SkuDetails> load(@NonNull String skuType, @NonNull List<String> skus) {
+        Map<String, SkuDetails> result = new HashMap<>();
+        for (String sku : skus) {
+            String json = preferences.getString(detailsKey(skuType, sku), null);
+            if (null == json) {
+                continue;
+            }
+            try {
+                result.put(sku, new SkuDetails(json));
+            } catch (JSONException e) {
+                Log.w(TAG, "Discarding unreadable cached SkuDetails for: " + sku);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Stores the SkuDetails from a successful query along with the time of the response.
+     *
+     * @param skuDetailsList details returned by Play
+     * @param responseTime   wall clock time of the response in milliseconds
+     */
+    void store(@NonNull List<SkuDetails> skuDetailsList, long responseTime) {
+        SharedPreferences.Editor editor = preferences.edit();
+        for (SkuDetails skuDetails : skuDetailsList) {
+            String skuType = skuDetails.getType();
+            editor.putString(detailsKey(skuType, skuDetails.getSku()),
+                    skuDetails.getOriginalJson());
+            editor.putLong(RESPONSE_TIME_KEY_PREFIX + skuType, responseTime);
+        }
+        editor.apply();
+    }
+
+    /**
+     * @param skuType sku type, inapp or subscription
+     * @return wall clock time of the last stored response for the type, or 0 if there is none.
+     */
+    long getResponseTime(@NonNull String skuType) {
+        return preferences.getLong(RESPONSE_TIME_KEY_PREFIX + skuType, 0L);
+    }
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.trivialdrivesample.billing;
+
+/**
+ * The state of a SKU, as derived from the purchases that contain it.
+ */
+enum SkuState {
+    SKU_STATE_UNPURCHASED,
+    SKU_STATE_PENDING,
+    SKU_STATE_PURCHASED,
+    SKU_STATE_PURCHASED_AND_ACKNOWLEDGED,
+}
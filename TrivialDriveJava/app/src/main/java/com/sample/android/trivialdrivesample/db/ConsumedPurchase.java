@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sample.android.trivialdrivesample.db;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/*
+    One entry of the consumption journal: a consumable purchase and how far along its
+    consumption is.
+ */
+@Entity
+public class ConsumedPurchase {
+    public static final int STATE_PENDING = 0;
+    public static final int STATE_CONSUMED = 1;
+    public static final int STATE_GRANTED = 2;
+
+    public ConsumedPurchase(@NonNull String purchaseToken, @NonNull String skus, int quantity,
+            int state, long updatedAtMillis) {
+        this.purchaseToken = purchaseToken;
+        this.skus = skus;
+        this.quantity = quantity;
+        this.state = state;
+        this.updatedAtMillis = updatedAtMillis;
+    }
+
+    @PrimaryKey
+    @NonNull
+    public String purchaseToken;
+    // comma-separated, since SKUs can't contain commas
+    @NonNull
+    public String skus;
+    // how many of each SKU the purchase is for
+    public int quantity;
+    public int state;
+    // wall clock time of the last state change, used to prune granted entries and to tell
+    // which pending entries a purchase query already knew about
+    public long updatedAtMillis;
+}
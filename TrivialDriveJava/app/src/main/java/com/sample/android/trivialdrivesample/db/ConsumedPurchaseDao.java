@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sample.android.trivialdrivesample.db;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import java.util.List;
+
+@Dao
+public interface ConsumedPurchaseDao {
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    void insert(ConsumedPurchase consumedPurchase);
+
+    @Query("SELECT * FROM ConsumedPurchase WHERE purchaseToken = :purchaseToken LIMIT 1")
+    ConsumedPurchase get(String purchaseToken);
+
+    @Query("SELECT * FROM ConsumedPurchase WHERE state = :state")
+    List<ConsumedPurchase> getByState(int state);
+
+    @Query("SELECT * FROM ConsumedPurchase WHERE state = :state " +
+            "AND updatedAtMillis < :cutoffMillis")
+    List<ConsumedPurchase> getByStateBefore(int state, long cutoffMillis);
+
+    @Query("UPDATE ConsumedPurchase SET state = :newState, updatedAtMillis = :updatedAtMillis " +
+            "WHERE purchaseToken = :purchaseToken AND state = :oldState")
+    int updateState(String purchaseToken, int oldState, int newState, long updatedAtMillis);
+
+    @Query("DELETE FROM ConsumedPurchase WHERE state = :state AND updatedAtMillis < :cutoffMillis")
+    int deleteByStateBefore(int state, long cutoffMillis);
+}
@@ -15,10 +15,26 @@
  */
 package com.sample.android.trivialdrivesample.db;
 
+import androidx.annotation.NonNull;
 import androidx.room.Database;
 import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
 
-@Database(entities = {GameState.class}, version = 1)
+@Database(entities = {GameState.class, ConsumedPurchase.class}, version = 2)
 public abstract class GameStateDatabase extends RoomDatabase {
     public abstract GameStateDao gameStateDao();
+
+    public abstract ConsumedPurchaseDao consumedPurchaseDao();
+
+    // Version 2 adds the consumption journal. The asset database is still version 1.
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `ConsumedPurchase` "
+                    + "(`purchaseToken` TEXT NOT NULL, `skus` TEXT NOT NULL, "
+                    + "`quantity` INTEGER NOT NULL, `state` INTEGER NOT NULL, `updatedAtMillis` INTEGER NOT NULL, "
+                    + "PRIMARY KEY(`purchaseToken`))");
+        }
+    };
 }
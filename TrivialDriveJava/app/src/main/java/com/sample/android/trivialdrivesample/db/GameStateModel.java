@@ -16,48 +16,177 @@
 package com.sample.android.trivialdrivesample.db;
 
 import android.app.Application;
+import android.os.Handler;
+import android.os.Looper;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleObserver;
 import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.OnLifecycleEvent;
 import androidx.room.Room;
 
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-public class GameStateModel {
+/**
+ * Holds the game state. The gas level is kept in memory, where every change is applied atomically
+ * and published to observers right away, and written to the database behind the scenes: changes
+ * made within FLUSH_DELAY_MILLISECONDS of each other are written with a single query, and any
+ * unwritten change is queued for writing when the activity observing the model pauses.
+ */
+public class GameStateModel implements LifecycleObserver, GasSource {
+    private static final long FLUSH_DELAY_MILLISECONDS = 1000L;
+    private static final Handler handler = new Handler(Looper.getMainLooper());
+    final GameStateDatabase db;
     final GameStateDao gameStateDao;
-    final ExecutorService queryExecutor = Executors.newSingleThreadExecutor();
-    final static private String GAS_LEVEL = "gas";
-    final LiveData<Integer> gasTankLevel;
+    final ScheduledExecutorService queryExecutor = Executors.newSingleThreadScheduledExecutor();
+    final static String GAS_LEVEL = "gas";
+    // the authoritative gas level; the database can be behind it until the next flush
+    private final GasTank gasTank = new GasTank();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final AtomicBoolean publishScheduled = new AtomicBoolean();
+    // held while writing the gas level, so an older value can't overwrite a newer one
+    private final Object writeLock = new Object();
+    private final MutableLiveData<Integer> gasTankLevel = new MutableLiveData<>();
+    private final Runnable publishGasLevel = () -> {
+        publishScheduled.set(false);
+        gasTankLevel.setValue(gasTank.peekGasLevel());
+    };
 
     public GameStateModel(@NonNull Application application) {
         // This creates our DB and populates our game state database with the initial state of
         // a full tank
-        GameStateDatabase db = Room.databaseBuilder(application,
+        db = Room.databaseBuilder(application,
                 GameStateDatabase.class, "GameState.db")
                 .createFromAsset("database/initialgamestate.db")
+                .addMigrations(GameStateDatabase.MIGRATION_1_2)
                 .build();
         gameStateDao = db.gameStateDao();
-        gasTankLevel = gameStateDao.observe(GAS_LEVEL);
+        queryExecutor.execute(() -> {
+            loadGasLevel();
+            publish();
+        });
     }
 
-    public void decrementGas(int minLevel) {
-        queryExecutor.submit(() -> {
-            gameStateDao.decrement(GAS_LEVEL, minLevel);
+    /**
+     * Opens the database on the query executor, so that copying the initial game state from the
+     * assets and running migrations happen off the main thread and before the first query needs
+     * them.
+     *
+     * @param onOpened run on the query executor once the database is open
+     */
+    public void open(@NonNull Runnable onOpened) {
+        queryExecutor.execute(() -> {
+            db.getOpenHelper().getWritableDatabase();
+            onOpened.run();
         });
     }
 
-    public void incrementGas(int maxLevel) {
-        queryExecutor.submit(() -> {
-            gameStateDao.increment(GAS_LEVEL, maxLevel);
-        });
+    /**
+     * Uses a unit of gas from the in-memory level and schedules writing the new level.
+     */
+    @Nullable
+    @Override
+    public Integer useGas(int minLevel) {
+        Integer level = gasTank.useGas(minLevel);
+        if (null != level && level > minLevel) {
+            publish();
+            scheduleFlush();
+        }
+        return level;
+    }
+
+    /**
+     * Never blocks on the database.
+     */
+    @Nullable
+    @Override
+    public Integer peekGasLevel() {
+        return gasTank.peekGasLevel();
+    }
+
+    /**
+     * Adds units of gas and writes the new level as part of the caller's transaction, so that
+     * it is stored together with whatever else the transaction writes. However many units are
+     * added, the level is written with a single query.
+     *
+     * @param units    the units of gas to add
+     * @param maxLevel the level the gas can't go above
+     */
+    @WorkerThread
+    void addGasInTransaction(int units, int maxLevel) {
+        loadGasLevel();
+        if (gasTank.addGas(units, Integer.MIN_VALUE, maxLevel)) {
+            writeGasLevel();
+            publish();
+        }
     }
 
     public LiveData<Integer> gasTankLevel() {
         return gasTankLevel;
     }
 
-    public Integer getCurrentGasTankLevel() {
-        return gameStateDao.get(GAS_LEVEL);
+    /**
+     * Queues a write of any change to the gas level that hasn't been written yet, so the change
+     * survives the process being killed while in the background. The write runs on the query
+     * executor, after every query that is already queued, so pausing doesn't wait on the disk.
+     */
+    @OnLifecycleEvent(Lifecycle.Event.ON_PAUSE)
+    public void flush() {
+        queryExecutor.execute(this::flushGasLevel);
+    }
+
+    @WorkerThread
+    private void loadGasLevel() {
+        if (gasTank.isLoaded()) {
+            return;
+        }
+        Integer storedLevel = gameStateDao.get(GAS_LEVEL);
+        gasTank.load(null == storedLevel ? 0 : storedLevel);
+    }
+
+    /**
+     * Publishes the gas level to observers: immediately on the main thread, otherwise with a
+     * single post however many changes happen before it runs.
+     */
+    private void publish() {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            gasTankLevel.setValue(gasTank.peekGasLevel());
+        } else if (publishScheduled.compareAndSet(false, true)) {
+            handler.post(publishGasLevel);
+        }
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            queryExecutor.schedule(this::flushGasLevel, FLUSH_DELAY_MILLISECONDS,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @WorkerThread
+    private void flushGasLevel() {
+        if (!flushScheduled.getAndSet(false)) {
+            return;
+        }
+        // The transaction is taken before the write lock, in the same order as a caller of
+        // addGasInTransaction does.
+        db.runInTransaction(this::writeGasLevel);
+    }
+
+    @WorkerThread
+    private void writeGasLevel() {
+        synchronized (writeLock) {
+            Integer level = gasTank.peekGasLevel();
+            if (null != level) {
+                gameStateDao.put(GAS_LEVEL, level);
+            }
+        }
     }
 }
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sample.android.trivialdrivesample.db;
+
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import com.sample.android.trivialdrivesample.billing.ConsumptionJournal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the consumption journal in the game state database, so that adding gas for a consumed
+ * purchase and recording the purchase as granted happen in the same Room transaction. Either both
+ * are written or neither is, which is what makes replaying the journal after a crash safe.
+ */
+public class GasConsumptionJournal implements ConsumptionJournal {
+    private final GameStateDatabase db;
+    private final ConsumedPurchaseDao consumedPurchaseDao;
+    private final GameStateModel gameStateModel;
+    private final String gasSku;
+    private final int gasTankMax;
+
+    /**
+     * @param gameStateModel the model whose database holds the journal and the gas level
+     * @param gasSku         the consumable SKU that adds a unit of gas per purchased item
+     * @param gasTankMax     the gas level that granting can't go above
+     */
+    public GasConsumptionJournal(@NonNull GameStateModel gameStateModel, @NonNull String gasSku,
+            int gasTankMax) {
+        db = gameStateModel.db;
+        consumedPurchaseDao = db.consumedPurchaseDao();
+        this.gameStateModel = gameStateModel;
+        this.gasSku = gasSku;
+        this.gasTankMax = gasTankMax;
+    }
+
+    @WorkerThread
+    @Override
+    public void markPending(@NonNull String purchaseToken, @NonNull List<String> skus,
+            int quantity) {
+        consumedPurchaseDao.insert(new ConsumedPurchase(purchaseToken, TextUtils.join(",", skus),
+                quantity, ConsumedPurchase.STATE_PENDING, System.currentTimeMillis()));
+    }
+
+    @WorkerThread
+    @Override
+    public void markConsumed(@NonNull String purchaseToken) {
+        consumedPurchaseDao.updateState(purchaseToken, ConsumedPurchase.STATE_PENDING,
+                ConsumedPurchase.STATE_CONSUMED, System.currentTimeMillis());
+    }
+
+    @WorkerThread
+    @Override
+    public boolean grant(@NonNull String purchaseToken) {
+        return grantAll(Collections.singletonList(purchaseToken)) == 1;
+    }
+
+    @WorkerThread
+    @Override
+    public int grantAll(@NonNull Collection<String> purchaseTokens) {
+        long now = System.currentTimeMillis();
+        return db.runInTransaction(() -> {
+            int granted = 0;
+            int gasUnits = 0;
+            for (String purchaseToken : purchaseTokens) {
+                ConsumedPurchase consumedPurchase = consumedPurchaseDao.get(purchaseToken);
+                if (null == consumedPurchase
+                        || consumedPurchase.state != ConsumedPurchase.STATE_CONSUMED) {
+                    continue;
+                }
+                for (String sku : splitSkus(consumedPurchase.skus)) {
+                    if (sku.equals(gasSku)) {
+                        gasUnits += consumedPurchase.quantity;
+                    }
+                }
+                consumedPurchaseDao.updateState(purchaseToken, ConsumedPurchase.STATE_CONSUMED,
+                        ConsumedPurchase.STATE_GRANTED, now);
+                granted++;
+            }
+            // the gas for the whole batch is added at once
+            if (gasUnits > 0) {
+                gameStateModel.addGasInTransaction(gasUnits, gasTankMax);
+            }
+            return granted;
+        });
+    }
+
+    @WorkerThread
+    @NonNull
+    @Override
+    public Map<String, List<String>> getPendingBefore(long pendingBeforeMillis) {
+        Map<String, List<String>> pending = new HashMap<>();
+        for (ConsumedPurchase consumedPurchase : consumedPurchaseDao.getByStateBefore(
+                ConsumedPurchase.STATE_PENDING, pendingBeforeMillis)) {
+            pending.put(consumedPurchase.purchaseToken, splitSkus(consumedPurchase.skus));
+        }
+        return pending;
+    }
+
+    @WorkerThread
+    @NonNull
+    @Override
+    public List<String> getConsumed() {
+        List<String> consumed = new ArrayList<>();
+        for (ConsumedPurchase consumedPurchase :
+                consumedPurchaseDao.getByState(ConsumedPurchase.STATE_CONSUMED)) {
+            consumed.add(consumedPurchase.purchaseToken);
+        }
+        return consumed;
+    }
+
+    @WorkerThread
+    @Override
+    public int pruneGranted(long grantedBeforeMillis) {
+        return consumedPurchaseDao.deleteByStateBefore(ConsumedPurchase.STATE_GRANTED,
+                grantedBeforeMillis);
+    }
+
+    private static List<String> splitSkus(String skus) {
+        return Arrays.asList(TextUtils.split(skus, ","));
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sample.android.trivialdrivesample.db;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Somewhere gas can be used from. Both methods return right away, so they can be called on any
+ * thread.
+ */
+public interface GasSource {
+    /**
+     * @return the current gas level, or null if it isn't known yet
+     */
+    @Nullable
+    Integer peekGasLevel();
+
+    /**
+     * Uses a unit of gas if the level is above minLevel. The check and the update happen
+     * atomically, so taps racing on different threads can't use the same unit twice.
+     *
+     * @param minLevel the level the gas can't go below
+     * @return the level before the call, or null if it isn't known yet
+     */
+    @Nullable
+    Integer useGas(int minLevel);
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sample.android.trivialdrivesample.db;
+
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The in-memory gas level that GameStateModel keeps ahead of the database. Every change is a
+ * compare-and-set on a single AtomicInteger, so changes made on different threads are never lost
+ * or applied twice. It doesn't call into the Android framework, so the benchmark module measures
+ * this class as it ships.
+ */
+public final class GasTank implements GasSource {
+    // gas level before it has been read from the database
+    private static final int UNKNOWN = Integer.MIN_VALUE;
+    private final AtomicInteger gasLevel = new AtomicInteger(UNKNOWN);
+
+    /**
+     * Sets the level read from the database. Does nothing if the level is already known, so a
+     * late load can't overwrite changes made since.
+     */
+    public void load(int storedLevel) {
+        gasLevel.compareAndSet(UNKNOWN, storedLevel);
+    }
+
+    /**
+     * @return true once the level has been read from the database
+     */
+    public boolean isLoaded() {
+        return UNKNOWN != gasLevel.get();
+    }
+
+    @Nullable
+    @Override
+    public Integer peekGasLevel() {
+        int level = gasLevel.get();
+        return UNKNOWN == level ? null : level;
+    }
+
+    @Nullable
+    @Override
+    public Integer useGas(int minLevel) {
+        while (true) {
+            int current = gasLevel.get();
+            if (UNKNOWN == current) {
+                return null;
+            }
+            if (current <= minLevel) {
+                return current;
+            }
+            if (gasLevel.compareAndSet(current, current - 1)) {
+                return current;
+            }
+        }
+    }
+
+    /**
+     * Moves the gas level by delta, without moving it past minLevel or maxLevel. A level that is
+     * already past the limit in the direction of delta is left alone, and so is a level that
+     * isn't known yet.
+     *
+     * @return true if the level changed
+     */
+    public boolean addGas(int delta, int minLevel, int maxLevel) {
+        while (true) {
+            int current = gasLevel.get();
+            if (UNKNOWN == current) {
+                return false;
+            }
+            int updated;
+            if (delta > 0) {
+                updated = current >= maxLevel ? current : (int) Math.min((long) current + delta,
+                        maxLevel);
+            } else {
+                updated = current <= minLevel ? current : (int) Math.max((long) current + delta,
+                        minLevel);
+            }
+            if (updated == current) {
+                return false;
+            }
+            if (gasLevel.compareAndSet(current, updated)) {
+                return true;
+            }
+        }
+    }
+}
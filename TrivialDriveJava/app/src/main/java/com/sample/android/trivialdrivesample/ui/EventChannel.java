@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.trivialdrivesample.ui;
+
+import android.util.Log;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.lifecycle.LifecycleOwner;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.Observer;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lifecycle-aware channel of one-off events, such as Snackbar messages or purchase
+ * notifications, that doesn't lose events sent in quick succession.
+ * <p>
+ * Unlike a LiveData, which only keeps the last value, events are held in a bounded ring
+ * buffer until they are delivered. Each dispatch drains the buffer, calling the observer once
+ * for every queued event in the order they were sent, so a burst of events costs one dispatch on
+ * the main thread. Events sent while the observer is inactive are delivered when it becomes active
+ * again, and an observer that re-subscribes after a configuration change only receives events it
+ * hasn't seen. When the buffer is full, the overflow policy decides which event is dropped.
+ * <p>
+ * Events can be sent from any thread without locking. Only one observer is meant to consume the
+ * events.
+ */
+public class EventChannel<T> extends LiveData<T> {
+    private static final String TAG = "EventChannel";
+
+    public enum OverflowPolicy {
+        // drop the event that has waited longest to make room for the new one
+        DROP_OLDEST,
+        // keep the queued events and drop the new one
+        DROP_NEWEST,
+    }
+
+    private final RingBuffer<T> events;
+    private final OverflowPolicy overflowPolicy;
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final Map<Observer<? super T>, Observer<T>> drainingObservers = new HashMap<>();
+
+    /**
+     * @param capacity       the most events that can wait to be delivered; rounded up to a power
+     *                       of two
+     * @param overflowPolicy what to do with an event sent while the buffer is full
+     */
+    public EventChannel(int capacity, @NonNull OverflowPolicy overflowPolicy) {
+        events = new RingBuffer<>(capacity);
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Sends an event. This can be called on any thread; the observer is called on the main
+     * thread.
+     *
+     * @param event the event to send
+     */
+    public void send(@NonNull T event) {
+        while (!events.offer(event)) {
+            if (overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+                droppedCount.incrementAndGet();
+                Log.w(TAG, "Event channel full, dropping newest event.");
+                return;
+            }
+            if (null != events.poll()) {
+                droppedCount.incrementAndGet();
+                Log.w(TAG, "Event channel full, dropping oldest event.");
+            }
+        }
+        // several sends before the main thread runs are coalesced into a single dispatch
+        postValue(null);
+    }
+
+    /**
+     * @return the number of events dropped because the buffer was full
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    @MainThread
+    @Override
+    public void observe(@NonNull LifecycleOwner owner, @NonNull Observer<? super T> observer) {
+        warnIfObserved();
+        super.observe(owner, drainingObserver(observer));
+    }
+
+    @MainThread
+    @Override
+    public void observeForever(@NonNull Observer<? super T> observer) {
+        warnIfObserved();
+        super.observeForever(drainingObserver(observer));
+    }
+
+    @MainThread
+    @Override
+    public void removeObserver(@NonNull Observer<? super T> observer) {
+        Observer<T> drainingObserver = drainingObservers.remove(observer);
+        if (null == drainingObserver) {
+            // LiveData itself removes the draining observer when its owner is destroyed
+            drainingObservers.values().remove(observer);
+            super.removeObserver(observer);
+        } else {
+            super.removeObserver(drainingObserver);
+        }
+    }
+
+    private void warnIfObserved() {
+        if (hasObservers()) {
+            Log.w(TAG, "Multiple observers registered but only one will receive each event.");
+        }
+    }
+
+    private Observer<T> drainingObserver(@NonNull Observer<? super T> observer) {
+        Observer<T> drainingObserver = drainingObservers.get(observer);
+        if (null == drainingObserver) {
+            // the dispatched value is only a signal; the events come from the buffer
+            drainingObserver = ignored -> {
+                T event;
+                while (null != (event = events.poll())) {
+                    observer.onChanged(event);
+                }
+            };
+            drainingObservers.put(observer, drainingObserver);
+        }
+        return drainingObserver;
+    }
+
+    /**
+     * A bounded, lock-free queue that any number of threads can add to and take from. Each slot
+     * carries a sequence number that tells producers and consumers whether it is free or full
+     * for their turn, so a slot is never read before it has been completely written.
+     */
+    private static final class RingBuffer<E> {
+        private final AtomicReferenceArray<E> slots;
+        private final AtomicLongArray sequences;
+        private final int mask;
+        private final AtomicLong head = new AtomicLong();
+        private final AtomicLong tail = new AtomicLong();
+
+        RingBuffer(int capacity) {
+            int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+            slots = new AtomicReferenceArray<>(size);
+            sequences = new AtomicLongArray(size);
+            mask = size - 1;
+            for (int i = 0; i < size; i++) {
+                sequences.set(i, i);
+            }
+        }
+
+        /**
+         * @return false if the queue is full
+         */
+        boolean offer(E element) {
+            while (true) {
+                long position = tail.get();
+                int index = (int) position & mask;
+                long difference = sequences.get(index) - position;
+                if (difference == 0) {
+                    if (tail.compareAndSet(position, position + 1)) {
+                        slots.set(index, element);
+                        sequences.set(index, position + 1);
+                        return true;
+                    }
+                } else if (difference < 0) {
+                    return false;
+                }
+                // another producer took the slot first; try the next position
+            }
+        }
+
+        /**
+         * @return the oldest element, or null if the queue is empty
+         */
+        E poll() {
+            while (true) {
+                long position = head.get();
+                int index = (int) position & mask;
+                long difference = sequences.get(index) - (position + 1);
+                if (difference == 0) {
+                    if (head.compareAndSet(position, position + 1)) {
+                        E element = slots.getAndSet(index, null);
+                        sequences.set(index, position + mask + 1);
+                        return element;
+                    }
+                } else if (difference < 0) {
+                    return null;
+                }
+                // another consumer took the element first; try the next position
+            }
+        }
+    }
+}
@@ -67,8 +67,8 @@ public class GameFragment extends androidx.fragment.app.Fragment {
 
         GameViewModel.GameViewModelFactory gameViewModelFactory =
                 new GameViewModel.GameViewModelFactory(
-                        ((TrivialDriveApplication) getActivity().getApplication()).appContainer
-                                .trivialDriveRepository);
+                        ((TrivialDriveApplication) getActivity().getApplication())
+                                .getAppContainer().trivialDriveRepository);
 
         gameViewModel = new ViewModelProvider(this, gameViewModelFactory)
                 .get(GameViewModel.class);
@@ -22,6 +22,8 @@ import android.util.Log;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewTreeObserver;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -43,6 +45,9 @@ import com.sample.android.trivialdrivesample.R;
 import com.sample.android.trivialdrivesample.TrivialDriveApplication;
 import com.sample.android.trivialdrivesample.databinding.ActivityMainBinding;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
+
 /*
  * MainActivity here exists as a container for the fragments that display the various bits of UI,
  * as well as the CoordinatorLayout/SnackBar implementation.
@@ -50,6 +55,9 @@ import com.sample.android.trivialdrivesample.databinding.ActivityMainBinding;
 public class MainActivity extends AppCompatActivity {
     private MainActivityViewModel mainActivityViewModel;
     private ActivityMainBinding activityMainBinding;
+    // messages waiting for the Snackbar that is showing to be dismissed
+    private final Deque<Integer> pendingMessages = new ArrayDeque<>();
+    private Integer shownMessage;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -72,17 +80,28 @@ public class MainActivity extends AppCompatActivity {
         // Create our Activity ViewModel, which exists to handle global Snackbar messages
         MainActivityViewModel.MainActivityViewModelFactory mainActivityViewModelFactory = new
                 MainActivityViewModel.MainActivityViewModelFactory(
-                ((TrivialDriveApplication) getApplication()).appContainer.
+                ((TrivialDriveApplication) getApplication()).getAppContainer().
                         trivialDriveRepository);
         mainActivityViewModel = new ViewModelProvider(this, mainActivityViewModelFactory)
                 .get(MainActivityViewModel.class);
-        mainActivityViewModel.getMessages().observe(this, resId -> {
-            Snackbar snackbar = Snackbar.make(activityMainBinding.mainLayout, getString(resId),
-                    Snackbar.LENGTH_SHORT);
-            snackbar.show();
-        });
+        mainActivityViewModel.getMessages().observe(this, this::showMessage);
         // Allows billing to refresh purchases during onResume
         getLifecycle().addObserver(mainActivityViewModel.getBillingLifecycleObserver());
+        // Makes sure gas used while driving has been written to the database when we pause
+        getLifecycle().addObserver(mainActivityViewModel.getGameStateLifecycleObserver());
+
+        // Lets the application finish its staged startup once something is on screen
+        View decorView = getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnDrawListener(new ViewTreeObserver.OnDrawListener() {
+            @Override
+            public void onDraw() {
+                // listeners can't be removed while the tree is being drawn
+                decorView.post(() -> {
+                    decorView.getViewTreeObserver().removeOnDrawListener(this);
+                    ((TrivialDriveApplication) getApplication()).onFirstFrameDrawn();
+                });
+            }
+        });
 
         // A helpful hint to prevent confusion when billing transactions silently fail
         if ( BuildConfig.BASE64_ENCODED_PUBLIC_KEY.equals("null")) {
@@ -94,6 +113,37 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * Shows a message in a Snackbar once the messages before it have been shown. A message that
+     * is the same as the one before it is dropped, so driving repeatedly doesn't build a backlog.
+     */
+    private void showMessage(int resId) {
+        Integer lastMessage = pendingMessages.isEmpty() ? shownMessage : pendingMessages.peekLast();
+        if (null != lastMessage && lastMessage == resId) {
+            return;
+        }
+        pendingMessages.add(resId);
+        if (null == shownMessage) {
+            showNextMessage();
+        }
+    }
+
+    private void showNextMessage() {
+        shownMessage = pendingMessages.poll();
+        if (null == shownMessage || isDestroyed()) {
+            return;
+        }
+        Snackbar.make(activityMainBinding.mainLayout, getString(shownMessage),
+                Snackbar.LENGTH_SHORT)
+                .addCallback(new Snackbar.Callback() {
+                    @Override
+                    public void onDismissed(Snackbar snackbar, int event) {
+                        showNextMessage();
+                    }
+                })
+                .show();
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         MenuInflater inflater = getMenuInflater();
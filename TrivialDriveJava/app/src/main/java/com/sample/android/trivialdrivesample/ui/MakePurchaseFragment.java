@@ -101,7 +101,7 @@ public class MakePurchaseFragment extends Fragment {
         MakePurchaseViewModel.MakePurchaseViewModelFactory makePurchaseViewModelFactory =
                 new MakePurchaseViewModel.MakePurchaseViewModelFactory(
                         ((TrivialDriveApplication) getActivity().getApplication())
-                                .appContainer.trivialDriveRepository);
+                                .getAppContainer().trivialDriveRepository);
         makePurchaseViewModel = new ViewModelProvider(this, makePurchaseViewModelFactory).
                 get(MakePurchaseViewModel.class);
 
@@ -1,75 +0,0 @@
-/*
- * Copyright (C) 2021 Google Inc. All rights reserved.
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- *    http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-package com.sample.android.trivialdrivesample.ui;
-
-import android.util.Log;
-
-import androidx.annotation.MainThread;
-import androidx.annotation.NonNull;
-import androidx.annotation.Nullable;
-import androidx.lifecycle.LifecycleOwner;
-import androidx.lifecycle.MediatorLiveData;
-import androidx.lifecycle.Observer;
-
-import java.util.concurrent.atomic.AtomicBoolean;
-
-/**
- * A lifecycle-aware observable that sends only new updates after subscription, used for events like
- * navigation and Snackbar messages. This can also be used like a MediatorLiveData to transform
- * other SingleMediatorLiveEvents.
- * <p>
- * This avoids a common problem with events: on configuration change (like rotation) an update
- * can be emitted if the observer is active. This LiveData only calls the observable if there's an
- * explicit call to setValue() or call().
- * <p>
- * Note that only one observer is going to be notified of changes.
- */
-public class SingleMediatorLiveEvent<T> extends MediatorLiveData<T> {
-
-    private static final String TAG = "SingleMediatorLiveEvent";
-
-    private final AtomicBoolean mPending = new AtomicBoolean(false);
-
-    @MainThread
-    public void observe(@NonNull LifecycleOwner owner,
-                        @NonNull final Observer<? super T> observer) {
-
-        if (hasActiveObservers()) {
-            Log.w(TAG, "Multiple observers registered but only one will be notified of changes.");
-        }
-
-        // Observe the internal MutableLiveData
-        super.observe(owner, t -> {
-            if (mPending.compareAndSet(true, false)) {
-                observer.onChanged(t);
-            }
-        });
-    }
-
-    @MainThread
-    public void setValue(@Nullable T t) {
-        mPending.set(true);
-        super.setValue(t);
-    }
-
-    /**
-     * Used for cases where T is Void, to make calls cleaner.
-     */
-    @MainThread
-    public void call() {
-        setValue(null);
-    }
-}
\ No newline at end of file
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.trivialdrivesample.billing;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+    private static final long MAX_VALUE = (1L << 32) - 1;
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getTotalCount());
+        assertEquals(0, histogram.getMaxValue());
+        assertEquals(0, histogram.getValueAtPercentile(50.0));
+        assertEquals(0, histogram.getValueAtPercentile(100.0));
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        for (long value = 0; value < 16; value++) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(value);
+            histogram.record(MAX_VALUE);
+
+            assertEquals(value, histogram.getValueAtPercentile(50.0));
+        }
+    }
+
+    @Test
+    public void percentileReportsTopOfBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // 16 and 17 share a bucket, as do 1000 to 1023.
+        histogram.record(16);
+        histogram.record(1000);
+        histogram.record(2000);
+
+        assertEquals(17, histogram.getValueAtPercentile(33.0));
+        assertEquals(1023, histogram.getValueAtPercentile(66.0));
+    }
+
+    @Test
+    public void percentileNeverExceedsMaxValue() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+
+        assertEquals(1000, histogram.getValueAtPercentile(50.0));
+        assertEquals(1000, histogram.getValueAtPercentile(100.0));
+    }
+
+    @Test
+    public void reportedValuesAreWithinOneEighth() {
+        for (long value = 1; value < MAX_VALUE; value = value * 3 / 2 + 1) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(value);
+            histogram.record(MAX_VALUE);
+
+            long reported = histogram.getValueAtPercentile(50.0);
+            assertTrue(value + " reported as " + reported, reported >= value);
+            assertTrue(value + " reported as " + reported, reported <= value + value / 8);
+        }
+    }
+
+    @Test
+    public void percentilesSelectRankedValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 90; i++) {
+            histogram.record(1);
+        }
+        for (int i = 0; i < 9; i++) {
+            histogram.record(5);
+        }
+        histogram.record(7);
+
+        assertEquals(100, histogram.getTotalCount());
+        assertEquals(1, histogram.getValueAtPercentile(0.0));
+        assertEquals(1, histogram.getValueAtPercentile(50.0));
+        assertEquals(1, histogram.getValueAtPercentile(90.0));
+        assertEquals(5, histogram.getValueAtPercentile(90.5));
+        assertEquals(5, histogram.getValueAtPercentile(99.0));
+        assertEquals(7, histogram.getValueAtPercentile(99.9));
+        assertEquals(7, histogram.getValueAtPercentile(100.0));
+        assertEquals(7, histogram.getMaxValue());
+    }
+
+    @Test
+    public void outOfRangeValuesAreClamped() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+
+        assertEquals(0, histogram.getValueAtPercentile(100.0));
+
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(2, histogram.getTotalCount());
+        assertEquals(MAX_VALUE, histogram.getMaxValue());
+        assertEquals(MAX_VALUE, histogram.getValueAtPercentile(100.0));
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.trivialdrivesample;
+
+import com.sample.android.trivialdrivesample.db.GasTank;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures taps per second on the drive button through the DriveController and GasTank that
+ * TrivialDriveRepository.drive uses: taking a game state snapshot, then using the gas with a
+ * compare-and-set. In the app GameStateModel also publishes the new level and schedules its
+ * write-behind after each tap, which needs the main Looper and Room and isn't included here. The
+ * tank is refilled whenever it runs dry.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DriveBenchmark {
+    // same values as TrivialDriveRepository, which can't be compiled for the JVM
+    private static final int GAS_TANK_MIN = 0;
+    private static final int GAS_TANK_MAX = 4;
+
+    private GasTank gasTank;
+    private DriveController driveController;
+    private DriveController subscribedDriveController;
+
+    @Setup
+    public void setUp() {
+        gasTank = new GasTank();
+        gasTank.load(GAS_TANK_MAX);
+        driveController = new DriveController(gasTank, GAS_TANK_MIN);
+        driveController.setMonthlySubscription(false);
+        driveController.setYearlySubscription(false);
+        subscribedDriveController = new DriveController(gasTank, GAS_TANK_MIN);
+        subscribedDriveController.setMonthlySubscription(true);
+        subscribedDriveController.setYearlySubscription(false);
+    }
+
+    @Benchmark
+    public void drive(Blackhole blackhole) {
+        blackhole.consume(driveAndRefill());
+    }
+
+    // drive() can be called on any thread, so it is also measured with taps racing
+    @Benchmark
+    @Threads(4)
+    public void driveContended(Blackhole blackhole) {
+        blackhole.consume(driveAndRefill());
+    }
+
+    // a subscription gives infinite gas, so no gas is used
+    @Benchmark
+    public void driveSubscribed(Blackhole blackhole) {
+        blackhole.consume(subscribedDriveController.drive());
+    }
+
+    private DriveController.Result driveAndRefill() {
+        DriveController.Result result = driveController.drive();
+        if (DriveController.Result.OUT_OF_GAS == result) {
+            gasTank.addGas(GAS_TANK_MAX, GAS_TANK_MIN, GAS_TANK_MAX);
+        }
+        return result;
+    }
+}
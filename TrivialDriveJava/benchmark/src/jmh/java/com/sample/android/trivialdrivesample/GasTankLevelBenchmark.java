@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.trivialdrivesample;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.Observer;
+
+import com.sample.android.trivialdrivesample.benchmark.Fixtures;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures delivering one gas level or subscription change through the GasTankLevelLiveData
+ * returned by TrivialDriveRepository.gasTankLevel.
+ * <p>
+ * In the per_call mode every observer gets its own GasTankLevelLiveData over the same three
+ * sources, which is how gasTankLevel used to work when it built a stream per call. In the shared
+ * mode every observer gets the one stream the repository now builds. The invocations counter
+ * reports how often the observers ran; divided by the benchmark score it gives the invocations
+ * per state change.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class GasTankLevelBenchmark {
+    // same values as TrivialDriveRepository, which can't be compiled for the JVM
+    private static final int GAS_TANK_MIN = 0;
+    private static final int GAS_TANK_MAX = 4;
+    private static final int GAS_TANK_INFINITE = 5;
+
+    @Param({"10", "1000", "100000"})
+    public int streamCount;
+
+    @Param({"per_call", "shared"})
+    public String mode;
+
+    private MutableLiveData<Integer> gasTankLevel;
+    private MutableLiveData<Boolean> monthlySubPurchased;
+    private MutableLiveData<Boolean> yearlySubPurchased;
+    private int nextGasLevel;
+    private boolean subscribed;
+    private long observerInvocations;
+    // written by every observer so that delivering a value can't be optimized away
+    public int deliveredLevel;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Invocations {
+        public long observer;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            observer = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        Fixtures.runLiveDataOnCallingThread();
+        gasTankLevel = new MutableLiveData<>(GAS_TANK_MIN);
+        monthlySubPurchased = new MutableLiveData<>(false);
+        yearlySubPurchased = new MutableLiveData<>(false);
+        Observer<Integer> observer = level -> {
+            observerInvocations++;
+            deliveredLevel = level;
+        };
+        LiveData<Integer> sharedStream = gasTankLevel();
+        for (int i = 0; i < streamCount; i++) {
+            ("shared".equals(mode) ? sharedStream : gasTankLevel()).observeForever(observer);
+        }
+    }
+
+    @Benchmark
+    public int changeGasLevel(Invocations invocations) {
+        nextGasLevel = (nextGasLevel + 1) % (GAS_TANK_MAX + 1);
+        gasTankLevel.setValue(nextGasLevel);
+        return count(invocations);
+    }
+
+    @Benchmark
+    public int changeSubscription(Invocations invocations) {
+        subscribed = !subscribed;
+        monthlySubPurchased.setValue(subscribed);
+        return count(invocations);
+    }
+
+    // the combined level stays at GAS_TANK_INFINITE, so the streams have nothing to emit
+    @Benchmark
+    public int changeGasLevelWhileSubscribed(Invocations invocations) {
+        if (!subscribed) {
+            subscribed = true;
+            monthlySubPurchased.setValue(true);
+        }
+        nextGasLevel = (nextGasLevel + 1) % (GAS_TANK_MAX + 1);
+        gasTankLevel.setValue(nextGasLevel);
+        return count(invocations);
+    }
+
+    private int count(Invocations invocations) {
+        invocations.observer += observerInvocations;
+        observerInvocations = 0;
+        return deliveredLevel;
+    }
+
+    private LiveData<Integer> gasTankLevel() {
+        return new GasTankLevelLiveData(gasTankLevel, monthlySubPurchased, yearlySubPurchased,
+                GAS_TANK_INFINITE);
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.trivialdrivesample.benchmark;
+
+import androidx.arch.core.executor.ArchTaskExecutor;
+import androidx.arch.core.executor.TaskExecutor;
+
+import com.android.billingclient.api.Purchase;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Synthetic purchase fixtures and environment setup for the benchmarks.
+ * <p>
+ * Purchase {@code i} holds SKU {@code sku_i}; every tenth purchase is a bundle that also holds the
+ * SKU of the following purchase, so a SKU can appear in more than one purchase. Every seventh
+ * purchase is pending and every third purchase is not yet acknowledged. The JSON has the same
+ * shape as the purchase data returned by Play, so it is parsed by the real billing library. SKU
+ * details and catalogs for FakeBillingClient use the same SKUs.
+ */
+public final class Fixtures {
+    public static final String PACKAGE_NAME = "com.sample.android.trivialdrivesample";
+    private static final String SIGNATURE_ALGORITHM = "SHA1withRSA";
+    // Play signs purchases with a 2048-bit RSA key
+    private static final int KEY_SIZE = 2048;
+    private static final long PURCHASE_TIME = 1621036800000L;
+
+    private static KeyPair keyPair;
+
+    private Fixtures() {
+    }
+
+    /**
+     * @return the SKU held by purchase {@code index}
+     */
+    public static String sku(int index) {
+        return "sku_" + index;
+    }
+
+    /**
+     * @return the token of purchase {@code index}
+     */
+    public static String purchaseToken(int index) {
+        return "token_" + index;
+    }
+
+    /**
+     * Returns SKUs spread evenly across a fixture of the given size, the way a data source asks
+     * for the few SKUs it knows about out of everything the user owns.
+     */
+    public static String[] spreadSkus(int purchaseCount, int skuCount) {
+        String[] skus = new String[skuCount];
+        for (int i = 0; i < skuCount; i++) {
+            skus[i] = sku((int) ((long) i * purchaseCount / skuCount));
+        }
+        return skus;
+    }
+
+    /**
+     * @return the JSON purchase data of purchase {@code index}
+     */
+    public static String purchaseJson(int index) {
+        try {
+            JSONArray skus = new JSONArray().put(sku(index));
+            if (index % 10 == 9) {
+                skus.put(sku(index + 1));
+            }
+            return new JSONObject()
+                    .put("orderId", String.format("GPA.0000-0000-0000-%05d", index))
+                    .put("packageName", PACKAGE_NAME)
+                    .put("productIds", skus)
+                    .put("purchaseTime", PURCHASE_TIME + index)
+                    .put("purchaseState", index % 7 == 6 ? 4 : 0)
+                    .put("purchaseToken", purchaseToken(index))
+                    .put("quantity", 1)
+                    .put("acknowledged", index % 3 != 2)
+                    .toString();
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the JSON SkuDetails of the in-app SKU held by purchase {@code index}, in the shape
+     * returned by Play
+     */
+    public static String skuDetailsJson(int index) {
+        try {
+            return new JSONObject()
+                    .put("productId", sku(index))
+                    .put("type", "inapp")
+                    .put("price", "$0.99")
+                    .put("price_amount_micros", 990000)
+                    .put("price_currency_code", "USD")
+                    .put("title", "Item " + index)
+                    .put("description", "Synthetic item " + index)
+                    .toString();
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns a catalog for FakeBillingClient with {@code skuCount} in-app SKUs, of which every
+     * tenth is already owned.
+     */
+    public static String catalogJson(int skuCount) {
+        try {
+            JSONArray skus = new JSONArray();
+            JSONArray purchases = new JSONArray();
+            for (int i = 0; i < skuCount; i++) {
+                skus.put(new JSONObject(skuDetailsJson(i)));
+                if (i % 10 == 0) {
+                    purchases.put(new JSONObject()
+                            .put("type", "inapp")
+                            .put("signature", "signature")
+                            .put("purchase", new JSONObject(purchaseJson(i))));
+                }
+            }
+            return new JSONObject()
+                    .put("skus", skus)
+                    .put("purchases", purchases)
+                    .toString();
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Builds purchases with a placeholder signature, for benchmarks that don't verify them.
+     */
+    public static List<Purchase> purchases(int count) {
+        List<Purchase> purchases = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            purchases.add(purchase(purchaseJson(i), "signature"));
+        }
+        return purchases;
+    }
+
+    /**
+     * Builds purchases signed with the fixture key. Signing is much slower than verifying, so
+     * large fixtures are signed in parallel.
+     */
+    public static List<Purchase> signedPurchases(int count) {
+        KeyPair keys = getKeyPair();
+        return IntStream.range(0, count).parallel()
+                .mapToObj(i -> {
+                    String json = purchaseJson(i);
+                    return purchase(json, sign(keys, json));
+                })
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @return the public key matching the signatures of {@link #signedPurchases(int)}
+     */
+    public static PublicKey publicKey() {
+        return getKeyPair().getPublic();
+    }
+
+    /**
+     * @return the public key in the Base64 X.509 form shown in the Play Console
+     */
+    public static String encodedPublicKey() {
+        return Base64.getEncoder().encodeToString(publicKey().getEncoded());
+    }
+
+    /**
+     * Makes LiveData treat the calling thread as the main thread and run posted work immediately,
+     * the same way InstantTaskExecutorRule does in unit tests. There is no Looper on a plain JVM.
+     */
+    public static void runLiveDataOnCallingThread() {
+        ArchTaskExecutor.getInstance().setDelegate(new TaskExecutor() {
+            @Override
+            public void executeOnDiskIO(Runnable runnable) {
+                runnable.run();
+            }
+
+            @Override
+            public void postToMainThread(Runnable runnable) {
+                runnable.run();
+            }
+
+            @Override
+            public boolean isMainThread() {
+                return true;
+            }
+        });
+    }
+
+    private static synchronized KeyPair getKeyPair() {
+        if (null == keyPair) {
+            try {
+                KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+                generator.initialize(KEY_SIZE);
+                keyPair = generator.generateKeyPair();
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return keyPair;
+    }
+
+    private static String sign(KeyPair keys, String json) {
+        try {
+            Signature signature = Signature.getInstance(SIGNATURE_ALGORITHM);
+            signature.initSign(keys.getPrivate());
+            signature.update(json.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(signature.sign());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Purchase purchase(String json, String signature) {
+        try {
+            return new Purchase(json, signature);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
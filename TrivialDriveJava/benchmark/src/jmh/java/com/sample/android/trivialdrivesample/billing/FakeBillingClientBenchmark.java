@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.trivialdrivesample.billing;
+
+import com.android.billingclient.api.AcknowledgePurchaseParams;
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingClientStateListener;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.ConsumeParams;
+import com.android.billingclient.api.Purchase;
+import com.android.billingclient.api.SkuDetails;
+import com.android.billingclient.api.SkuDetailsParams;
+import com.sample.android.trivialdrivesample.benchmark.Fixtures;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives the connect, query, consume and acknowledge round trips against a FakeBillingClient
+ * seeded with a synthetic catalog. Responses are delivered without latency on the calling thread,
+ * so each invocation is one complete round trip and the results are deterministic. Purchase
+ * queries go through the PurchasesQueryCoalescer, as they do in BillingDataSource.
+ * <p>
+ * The other billing classes schedule their work on the main Looper, which doesn't exist on a
+ * plain JVM; run them against the fake on a device through BillingDataSource.getInstance with a
+ * BillingClientFactory.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FakeBillingClientBenchmark {
+    private static final int QUERIED_SKU_COUNT = 20;
+
+    @Param({"10", "1000", "100000"})
+    public int skuCount;
+
+    private String catalogJson;
+    private ScheduledExecutorService scheduler;
+    private FakeBillingClient billingClient;
+    private PurchasesQueryCoalescer purchasesQueryCoalescer;
+    private SkuDetailsParams skuDetailsParams;
+    private BillingClientStateListener stateListener;
+    private int purchasedCount;
+    private List<SkuDetails> lastSkuDetails;
+    private List<Purchase> lastPurchases;
+    private int lastResponseCode;
+
+    @Setup
+    public void setUp() throws JSONException {
+        catalogJson = Fixtures.catalogJson(skuCount);
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        billingClient = new FakeBillingClient(FakeBillingCatalog.fromJson(catalogJson),
+                (billingResult, purchases) -> lastResponseCode = billingResult.getResponseCode(),
+                scheduler, Runnable::run, 0);
+        purchasesQueryCoalescer = new PurchasesQueryCoalescer(billingClient);
+        skuDetailsParams = SkuDetailsParams.newBuilder()
+                .setType(BillingClient.SkuType.INAPP)
+                .setSkusList(Arrays.asList(Fixtures.spreadSkus(skuCount, QUERIED_SKU_COUNT)))
+                .build();
+        stateListener = new BillingClientStateListener() {
+            @Override
+            public void onBillingSetupFinished(BillingResult billingResult) {
+                lastResponseCode = billingResult.getResponseCode();
+            }
+
+            @Override
+            public void onBillingServiceDisconnected() {
+                billingClient.startConnection(this);
+            }
+        };
+        billingClient.startConnection(stateListener);
+    }
+
+    @TearDown
+    public void tearDown() {
+        billingClient.endConnection();
+        scheduler.shutdown();
+    }
+
+    // parses the SkuDetails and purchases of the whole catalog
+    @Benchmark
+    public FakeBillingCatalog loadCatalog() throws JSONException {
+        return FakeBillingCatalog.fromJson(catalogJson);
+    }
+
+    @Benchmark
+    public List<SkuDetails> querySkuDetails() {
+        billingClient.querySkuDetailsAsync(skuDetailsParams,
+                (billingResult, skuDetailsList) -> lastSkuDetails = skuDetailsList);
+        return lastSkuDetails;
+    }
+
+    @Benchmark
+    public List<Purchase> queryPurchases() {
+        purchasesQueryCoalescer.queryPurchasesAsync(BillingClient.SkuType.INAPP,
+                (billingResult, purchases) -> lastPurchases = purchases);
+        return lastPurchases;
+    }
+
+    @Benchmark
+    public int purchaseAndConsume() {
+        Purchase purchase = billingClient.simulatePurchase(BillingClient.SkuType.INAPP,
+                nextSku());
+        billingClient.consumeAsync(ConsumeParams.newBuilder()
+                        .setPurchaseToken(purchase.getPurchaseToken())
+                        .build(),
+                (billingResult, purchaseToken) ->
+                        lastResponseCode = billingResult.getResponseCode());
+        return lastResponseCode;
+    }
+
+    @Benchmark
+    public int purchaseAcknowledgeAndConsume() {
+        Purchase purchase = billingClient.simulatePurchase(BillingClient.SkuType.INAPP,
+                nextSku());
+        billingClient.acknowledgePurchase(AcknowledgePurchaseParams.newBuilder()
+                        .setPurchaseToken(purchase.getPurchaseToken())
+                        .build(),
+                billingResult -> lastResponseCode = billingResult.getResponseCode());
+        // consume as well so the owned purchases don't grow over the run
+        billingClient.consumeAsync(ConsumeParams.newBuilder()
+                        .setPurchaseToken(purchase.getPurchaseToken())
+                        .build(),
+                (billingResult, purchaseToken) ->
+                        lastResponseCode = billingResult.getResponseCode());
+        return lastResponseCode;
+    }
+
+    @Benchmark
+    public int reconnect() {
+        // the state listener reconnects as soon as it hears about the disconnect
+        billingClient.simulateServiceDisconnect();
+        return billingClient.getConnectionState();
+    }
+
+    private String nextSku() {
+        purchasedCount = (purchasedCount + 1) % skuCount;
+        return Fixtures.sku(purchasedCount);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.trivialdrivesample.billing;
+
+import androidx.annotation.NonNull;
+
+import com.android.billingclient.api.Purchase;
+import com.sample.android.trivialdrivesample.benchmark.Fixtures;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures processing one purchase query result with the PurchaseListProcessor that
+ * BillingDataSource.processPurchaseList runs on the billing executor after every refresh:
+ * collecting the updated SKUs, verifying the signature of each purchased item, deriving the new
+ * SKU states and sorting purchases into those to consume and those to acknowledge. Logging the
+ * result, publishing the states to LiveData and handing purchases to the billing client are
+ * left out.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ProcessPurchaseListBenchmark {
+    private static final int AUTO_CONSUME_SKU_INTERVAL = 5;
+
+    @Param({"10", "1000", "100000"})
+    public int purchaseCount;
+
+    private List<Purchase> purchases;
+    private List<String> knownSkus;
+    private PurchaseListProcessor processor;
+
+    @Setup
+    public void setUp() {
+        purchases = Fixtures.signedPurchases(purchaseCount);
+        knownSkus = new ArrayList<>();
+        Set<String> knownAutoConsumeSkus = new HashSet<>();
+        // bundles hold the SKU of the following purchase, so there is one more SKU than purchases
+        for (int i = 0; i <= purchaseCount; i++) {
+            knownSkus.add(Fixtures.sku(i));
+            if (i % AUTO_CONSUME_SKU_INTERVAL == 0) {
+                knownAutoConsumeSkus.add(Fixtures.sku(i));
+            }
+        }
+        // Security decodes each signature with android.util.Base64; decode them up front here
+        Map<String, byte[]> signatures = new HashMap<>();
+        for (Purchase purchase : purchases) {
+            signatures.put(purchase.getPurchaseToken(),
+                    Base64.getDecoder().decode(purchase.getSignature()));
+        }
+        SignatureVerifier verifier = new SignatureVerifier(Fixtures.publicKey());
+        processor = new PurchaseListProcessor(new HashSet<>(knownSkus), knownAutoConsumeSkus,
+                new PurchaseListProcessor.Checks() {
+                    @Override
+                    public boolean isSignatureValid(@NonNull Purchase purchase) {
+                        try {
+                            return verifier.verify(purchase.getOriginalJson(),
+                                    signatures.get(purchase.getPurchaseToken()));
+                        } catch (GeneralSecurityException e) {
+                            return false;
+                        }
+                    }
+
+                    @Override
+                    public boolean isAcknowledged(@NonNull String purchaseToken) {
+                        return false;
+                    }
+                });
+    }
+
+    @Benchmark
+    public void processPurchaseList(Blackhole blackhole) {
+        blackhole.consume(processor.process(purchases, knownSkus));
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.trivialdrivesample.billing;
+
+import com.android.billingclient.api.Purchase;
+import com.sample.android.trivialdrivesample.benchmark.Fixtures;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures looking up the purchases for a few SKUs, which BillingDataSource does for every
+ * subscription upgrade and consumption. The linear scan is the lookup the data source did before
+ * it indexed purchase query results, and is kept as a baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PurchaseIndexBenchmark {
+    private static final int REQUESTED_SKU_COUNT = 4;
+
+    @Param({"10", "1000", "100000"})
+    public int purchaseCount;
+
+    private List<Purchase> purchases;
+    private String[] requestedSkus;
+    private PurchaseIndex index;
+
+    @Setup
+    public void setUp() {
+        purchases = Fixtures.purchases(purchaseCount);
+        requestedSkus = Fixtures.spreadSkus(purchaseCount, REQUESTED_SKU_COUNT);
+        index = new PurchaseIndex(purchases);
+    }
+
+    @Benchmark
+    public PurchaseIndex buildIndex() {
+        return new PurchaseIndex(purchases);
+    }
+
+    @Benchmark
+    public List<Purchase> lookupIndexed() {
+        return index.getPurchases(requestedSkus);
+    }
+
+    @Benchmark
+    public List<Purchase> buildAndLookupIndexed() {
+        return new PurchaseIndex(purchases).getPurchases(requestedSkus);
+    }
+
+    @Benchmark
+    public List<Purchase> lookupLinearScan() {
+        List<Purchase> result = new LinkedList<>();
+        for (Purchase purchase : purchases) {
+            for (String sku : requestedSkus) {
+                for (String purchaseSku : purchase.getSkus()) {
+                    if (purchaseSku.equals(sku)) {
+                        if (!result.contains(purchase)) {
+                            result.add(purchase);
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+}
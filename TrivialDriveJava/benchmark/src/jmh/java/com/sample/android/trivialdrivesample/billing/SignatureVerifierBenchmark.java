@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2021 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sample.android.trivialdrivesample.billing;
+
+import com.android.billingclient.api.Purchase;
+import com.sample.android.trivialdrivesample.benchmark.Fixtures;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures verifying one purchase signature, the way Security.verifyPurchase does for every
+ * purchased item on every refresh. Each invocation verifies the next purchase of the fixture, so
+ * with more purchases than the verifier remembers the cached path shows the cost of a restore
+ * that misses the cache. The from-scratch benchmark parses the key and creates the Signature on
+ * every call, as verification did before the key and Signature instances were reused.
+ * <p>
+ * Setting up the 100k fixture signs every purchase with a 2048-bit key and takes a while.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SignatureVerifierBenchmark {
+    @Param({"10", "1000", "100000"})
+    public int purchaseCount;
+
+    private String encodedPublicKey;
+    private String[] signedData;
+    private byte[][] signatures;
+    private SignatureVerifier verifier;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        List<Purchase> purchases = Fixtures.signedPurchases(purchaseCount);
+        signedData = new String[purchaseCount];
+        signatures = new byte[purchaseCount][];
+        for (int i = 0; i < purchaseCount; i++) {
+            Purchase purchase = purchases.get(i);
+            signedData[i] = purchase.getOriginalJson();
+            signatures[i] = Base64.getDecoder().decode(purchase.getSignature());
+        }
+        encodedPublicKey = Fixtures.encodedPublicKey();
+        verifier = new SignatureVerifier(Fixtures.publicKey());
+    }
+
+    private int nextPurchase() {
+        int purchase = next;
+        next = (next + 1) % purchaseCount;
+        return purchase;
+    }
+
+    @Benchmark
+    public boolean verifyCached() throws GeneralSecurityException {
+        int i = nextPurchase();
+        return verifier.verify(signedData[i], signatures[i]);
+    }
+
+    @Benchmark
+    public boolean verifyUncached() throws GeneralSecurityException {
+        int i = nextPurchase();
+        return verifier.verifyUncached(signedData[i], signatures[i]);
+    }
+
+    @Benchmark
+    public boolean verifyFromScratch() throws GeneralSecurityException {
+        int i = nextPurchase();
+        byte[] decodedKey = Base64.getDecoder().decode(encodedPublicKey);
+        PublicKey publicKey = KeyFactory.getInstance("RSA")
+                .generatePublic(new X509EncodedKeySpec(decodedKey));
+        Signature signature = Signature.getInstance(SignatureVerifier.SIGNATURE_ALGORITHM);
+        signature.initVerify(publicKey);
+        signature.update(signedData[i].getBytes());
+        return signature.verify(signatures[i]);
+    }
+}